@@ -0,0 +1,91 @@
+-- Benchmark for the partial Response indexes added in mobileappstudy-24.000-24.001.sql. Not an upgrade script.
+--
+-- Run with psql against a development database whose mobileappstudy schema is at 24.001 or later:
+--
+--   psql -d labkey -f response-indexes.sql
+--
+-- Copies of Participant, Response, and ForwardingAttempt (with all of their indexes, but no foreign keys) are created
+-- in a scratch schema and seeded with a production-like mix: 2,000,000 responses from 20,000 participants across 20
+-- study containers, mostly forwarded, with a small pending and processed backlog. Each query below has the shape the
+-- server issues and is run under EXPLAIN (ANALYZE, BUFFERS). Everything is rolled back at the end.
+--
+-- No plans or timings are recorded here; capture them by running the script against the target database. To see
+-- what the partial indexes change, run it once as is and once with the block that drops them uncommented.
+
+BEGIN;
+
+SET LOCAL search_path = mobileappstudy_benchmark;
+CREATE SCHEMA mobileappstudy_benchmark;
+
+CREATE TABLE Participant (LIKE mobileappstudy.Participant INCLUDING ALL);
+CREATE TABLE Response (LIKE mobileappstudy.Response INCLUDING ALL);
+CREATE TABLE ForwardingAttempt (LIKE mobileappstudy.ForwardingAttempt INCLUDING ALL);
+
+-- RowIds are supplied explicitly so the copied defaults don't draw from the real sequences
+INSERT INTO Participant (RowId, AppToken, StudyId, Status, AllowDataSharing, Created, Container)
+SELECT p, gen_random_uuid()::TEXT, p % 20, 0, 'true', now(), md5('container' || p % 20)::UUID::TEXT
+FROM generate_series(1, 20000) p;
+
+-- Status mix: 1% pending (0), 10% processed (1), 4% error (2), the rest forwarded (3). The newest rows are the pending
+-- and processed ones, as they are on a server that keeps up.
+INSERT INTO Response (RowId, Data, ParticipantId, AppToken, SurveyVersion, ActivityId, Language, Status, Container, Created)
+SELECT r, '{"startTime": "2024-01-01T00:00:00Z", "results": []}', p.RowId, p.AppToken, (r % 5)::TEXT,
+    'Activity' || r % 50, 'en',
+    CASE WHEN r > 1980000 THEN 0 WHEN r > 1780000 THEN 1 WHEN r % 25 = 0 THEN 2 ELSE 3 END,
+    p.Container, now() - (2000000 - r) * INTERVAL '1 second'
+FROM generate_series(1, 2000000) r
+JOIN Participant p ON p.RowId = r % 20000 + 1;
+
+-- A few processed responses are waiting for a forwarding retry
+INSERT INTO ForwardingAttempt (ResponseId, Container, Attempts, LastStatusCode, FirstAttempt, LastAttempt, NextAttempt, Parked)
+SELECT RowId, Container, 1, 503, now(), now(), now() + INTERVAL '5 minutes', FALSE
+FROM Response WHERE Status = 1 AND RowId % 100 = 0;
+
+ANALYZE Participant;
+ANALYZE Response;
+ANALYZE ForwardingAttempt;
+
+-- To get the plans without the partial indexes, uncomment this block before running the script:
+-- DO $$
+-- DECLARE idx RECORD;
+-- BEGIN
+--     FOR idx IN SELECT indexname FROM pg_indexes
+--         WHERE schemaname = 'mobileappstudy_benchmark' AND tablename = 'response' AND indexdef LIKE '% WHERE %'
+--     LOOP
+--         EXECUTE 'DROP INDEX mobileappstudy_benchmark.' || quote_ident(idx.indexname);
+--     END LOOP;
+-- END $$;
+
+-- ResponseManager.getResponsesToForward, preserving participant order
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT r.ActivityId, r.AppToken, r.Container, r.Created, r.ErrorMessage, r.Language, r.ParticipantId, r.Processed,
+       r.ProcessedBy, r.RowId, r.Status, r.SurveyVersion
+  FROM Response r LEFT JOIN ForwardingAttempt fa ON fa.ResponseId = r.RowId
+  WHERE r.Container = md5('container1')::UUID::TEXT
+    AND r.Status = 1
+    AND (fa.ResponseId IS NULL OR (NOT fa.Parked AND fa.NextAttempt <= CURRENT_TIMESTAMP))
+    AND r.RowId > 0
+    AND NOT EXISTS (SELECT 1 FROM Response r2 JOIN ForwardingAttempt fa2 ON fa2.ResponseId = r2.RowId
+        WHERE r2.ParticipantId = r.ParticipantId AND r2.RowId < r.RowId AND r2.Status = 1 AND NOT fa2.Parked AND fa2.NextAttempt > CURRENT_TIMESTAMP)
+  ORDER BY r.RowId
+  LIMIT 500;
+
+-- ResponseManager.getPendingResponseIds, first page of shredder recovery
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT RowId FROM Response WHERE Status = 0 AND RowId > 0 ORDER BY RowId LIMIT 500;
+
+-- ResponseManager.isKnownVersion
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT EXISTS (
+  SELECT 1
+  FROM Participant p, Participant p2, Response r
+  WHERE p.rowid = r.participantid
+    AND p.studyid = p2.studyid
+    AND p2.apptoken = (SELECT AppToken FROM Participant WHERE RowId = 42)
+    AND r.rowid != 1999999
+    AND r.activityid = 'Activity7'
+    AND r.surveyversion = '2'
+    AND r.status = 1
+);
+
+ROLLBACK;
@@ -0,0 +1,14 @@
+-- Shredder recovery pages through pending responses by RowId
+CREATE INDEX IX_Response_Pending ON mobileappstudy.Response (RowId) WHERE Status = 0;
+
+-- Forwarding looks for processed responses in a container, in RowId order
+CREATE INDEX IX_Response_Processed ON mobileappstudy.Response (Container, RowId) WHERE Status = 1;
+
+-- Known survey version check: has a response to this activity version been processed for the study?
+CREATE INDEX IX_Response_KnownVersion ON mobileappstudy.Response (ActivityId, SurveyVersion, ParticipantId) INCLUDE (RowId) WHERE Status = 1;
+
+CREATE INDEX IX_EnrollmentToken_Participant ON mobileappstudy.EnrollmentToken (ParticipantId);
+
+CREATE INDEX IX_ResponseMetadata_Container_Activity ON mobileappstudy.ResponseMetadata (Container, ActivityId);
+
+-- Participant lookups by AppToken are already served by UQ_Participant_AppToken_StudyId (AppToken, StudyId)
@@ -0,0 +1,16 @@
+-- Compressed survey response JSON moved out of mobileappstudy.Response once the response has been processed or forwarded
+CREATE TABLE mobileappstudy.ResponseArchive
+(
+    ResponseId INTEGER NOT NULL,
+    Data BYTEA NOT NULL,
+    Archived TIMESTAMP NOT NULL,
+    Container ENTITYID NOT NULL,
+
+    CONSTRAINT PK_ResponseArchive PRIMARY KEY (ResponseId),
+    CONSTRAINT FK_ResponseArchive_Response FOREIGN KEY (ResponseId) REFERENCES mobileappstudy.Response (RowId)
+);
+
+CREATE INDEX IX_ResponseArchive_Container ON mobileappstudy.ResponseArchive (Container);
+
+-- Data is NULL once archived
+ALTER TABLE mobileappstudy.Response ALTER COLUMN Data DROP NOT NULL;
@@ -0,0 +1,29 @@
+-- Survey response payloads stay as submitted TEXT, so forwarding sends exactly what the app sent. These support
+-- querying them in the database without storing a second copy.
+
+-- Parse a payload for querying. \u0000 escapes are replaced with \ufffd, since JSONB rejects them; anything else that
+-- can't be parsed is NULL rather than an error.
+CREATE FUNCTION mobileappstudy.parseResponseData(data TEXT) RETURNS JSONB AS $$
+BEGIN
+    RETURN data::JSONB;
+EXCEPTION WHEN OTHERS THEN
+    BEGIN
+        RETURN replace(data, '\u0000', '\ufffd')::JSONB;
+    EXCEPTION WHEN OTHERS THEN
+        RETURN NULL;
+    END;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- Parse a payload timestamp for querying. Returns NULL, rather than failing the query, if it's missing or malformed.
+CREATE FUNCTION mobileappstudy.parseResponseTime(value TEXT) RETURNS TIMESTAMPTZ AS $$
+BEGIN
+    RETURN value::TIMESTAMPTZ;
+EXCEPTION WHEN OTHERS THEN
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql STABLE;
+
+-- Result key search. Only the keys of the results array are indexed, not the payload.
+CREATE INDEX IX_Response_ResultKeys ON mobileappstudy.Response
+    USING GIN ((mobileappstudy.parseResponseData(Data)->'results') jsonb_path_ops) WHERE Data IS NOT NULL;
@@ -0,0 +1,19 @@
+-- Forwarding outbox: one row per processed response whose forwarding has failed, scheduling its next attempt.
+-- Responses without a row haven't been attempted yet; rows are removed once the response is forwarded.
+CREATE TABLE mobileappstudy.ForwardingAttempt
+(
+    ResponseId INTEGER NOT NULL,
+    Container ENTITYID NOT NULL,
+    Attempts INTEGER NOT NULL,
+    LastStatusCode INTEGER,
+    LastError TEXT,
+    FirstAttempt TIMESTAMP NOT NULL,
+    LastAttempt TIMESTAMP NOT NULL,
+    NextAttempt TIMESTAMP NOT NULL,
+    Parked BOOLEAN NOT NULL DEFAULT FALSE,
+
+    CONSTRAINT PK_ForwardingAttempt PRIMARY KEY (ResponseId),
+    CONSTRAINT FK_ForwardingAttempt_Response FOREIGN KEY (ResponseId) REFERENCES mobileappstudy.Response (RowId)
+);
+
+CREATE INDEX IX_ForwardingAttempt_Container ON mobileappstudy.ForwardingAttempt (Container, NextAttempt) WHERE NOT Parked;
@@ -14,20 +14,24 @@
         const selected = $("input[name='forwardingType']:checked").val();
         const basicPanel = $('#basicAuthPanel');
         const oauthPanel = $('#oauthPanel');
+        const deliveryPanel = $('#deliveryPanel');
 
         switch (selected) {
             case 'Basic':
                 showPanel(basicPanel);
                 hidePanel(oauthPanel);
+                deliveryPanel.show();
                 break;
             case 'OAuth':
                 hidePanel(basicPanel);
                 showPanel(oauthPanel);
+                deliveryPanel.show();
                 break;
             case 'Disabled':
             default:
                 hidePanel(basicPanel);
                 hidePanel(oauthPanel);
+                deliveryPanel.hide();
                 break;
         }
     }
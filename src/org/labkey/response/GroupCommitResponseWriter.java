@@ -0,0 +1,224 @@
+package org.labkey.response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.ShutdownListener;
+import org.labkey.response.data.SurveyResponse;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Group commit for mobileappstudy.Response inserts. Concurrent submissions are collected for up to a few
+ * milliseconds and written with one multi-row INSERT, so a burst of submissions costs one commit per batch rather
+ * than one per response. Callers block until the statement containing their row has completed. A caller that times
+ * out withdraws its row if it hasn't been picked up for a batch yet; otherwise it waits for that batch to finish, so a
+ * submission the app is told failed is never inserted afterwards.
+ */
+class GroupCommitResponseWriter
+{
+    private static final Logger logger = LogManager.getLogger(GroupCommitResponseWriter.class);
+    private static final String THREAD_NAME = "MobileAppResponseWriter";
+    private static final long INSERT_TIMEOUT_SECONDS = 30;
+
+    private final BlockingQueue<PendingInsert> _queue;
+    private final int _maxBatchSize;
+    private final long _flushIntervalMillis;
+    private final Thread _flusher;
+    private volatile boolean _shutdown = false;
+
+    /**
+     * @param maxBatchSize maximum number of responses written by a single statement
+     * @param flushIntervalMillis how long to wait for further submissions after the first one in a batch arrives
+     */
+    GroupCommitResponseWriter(int maxBatchSize, long flushIntervalMillis)
+    {
+        _maxBatchSize = maxBatchSize;
+        _flushIntervalMillis = flushIntervalMillis;
+        _queue = new LinkedBlockingQueue<>(maxBatchSize * 10);
+        _flusher = new Thread(this::run, THREAD_NAME);
+        _flusher.setDaemon(true);
+        _flusher.start();
+
+        ContextListener.addShutdownListener(new ShutdownListener()
+        {
+            @Override
+            public String getName()
+            {
+                return THREAD_NAME;
+            }
+
+            @Override
+            public void shutdownPre()
+            {
+                _shutdown = true;
+                _flusher.interrupt();
+            }
+
+            @Override
+            public void shutdownStarted()
+            {
+            }
+        });
+    }
+
+    /**
+     * Insert a response as part of the next group commit
+     * @param response fully populated response, including container and participantId
+     * @return the inserted response, with its RowId
+     */
+    @NotNull
+    SurveyResponse insert(@NotNull SurveyResponse response) throws InterruptedException
+    {
+        PendingInsert pending = new PendingInsert(response);
+        if (_shutdown || !_queue.offer(pending, INSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+            throw new IllegalStateException("Unable to queue response for insert");
+
+        try
+        {
+            try
+            {
+                return pending.result.get(INSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                if (pending.withdraw())
+                    throw new IllegalStateException("Timed out waiting for response to be inserted", e);
+
+                // Already being written: its outcome decides what the app is told, or it would resubmit a stored
+                // response. A write still outstanding after another timeout has stalled; its outcome is unknown.
+                try
+                {
+                    return pending.result.get(INSERT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                }
+                catch (TimeoutException stalled)
+                {
+                    throw new IllegalStateException("Timed out waiting for response insert to complete; it may have been stored", stalled);
+                }
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof RuntimeException re ? re : new RuntimeException(e.getCause());
+        }
+    }
+
+    private void run()
+    {
+        List<PendingInsert> batch = new ArrayList<>(_maxBatchSize);
+        while (!_shutdown)
+        {
+            try
+            {
+                PendingInsert first = _queue.take();
+                if (!first.claim())
+                    continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(_flushIntervalMillis);
+                while (batch.size() < _maxBatchSize)
+                {
+                    PendingInsert next = _queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+                    if (next.claim())
+                        batch.add(next);
+                }
+
+                flush(batch);
+            }
+            catch (InterruptedException e)
+            {
+                // Fail inserts already claimed for this batch before it's cleared, or their callers would never hear back
+                Thread.currentThread().interrupt();
+                IllegalStateException shutdown = new IllegalStateException("Server is shutting down");
+                batch.forEach(pending -> pending.result.completeExceptionally(shutdown));
+                break;
+            }
+            catch (Throwable t)
+            {
+                logger.error("Unexpected error writing survey responses", t);
+                batch.forEach(pending -> pending.result.completeExceptionally(t));
+            }
+            finally
+            {
+                batch.clear();
+            }
+        }
+
+        // Fail anything left so callers don't wait for the timeout
+        IllegalStateException shutdown = new IllegalStateException("Server is shutting down");
+        _queue.forEach(pending -> pending.result.completeExceptionally(shutdown));
+    }
+
+    private void flush(List<PendingInsert> batch)
+    {
+        try
+        {
+            insertRows(batch);
+        }
+        catch (RuntimeException e)
+        {
+            // Don't let one bad row fail everyone else in the batch
+            logger.warn("Group insert of " + batch.size() + " survey response(s) failed, inserting individually: " + e.getMessage());
+            for (PendingInsert pending : batch)
+            {
+                try
+                {
+                    ResponseManager.get().insertResponseRows(Collections.singletonList(pending.response));
+                    pending.result.complete(pending.response);
+                }
+                catch (RuntimeException rowException)
+                {
+                    pending.result.completeExceptionally(rowException);
+                }
+            }
+        }
+    }
+
+    private void insertRows(List<PendingInsert> batch)
+    {
+        List<SurveyResponse> responses = new ArrayList<>(batch.size());
+        batch.forEach(pending -> responses.add(pending.response));
+        ResponseManager.get().insertResponseRows(responses);
+        batch.forEach(pending -> pending.result.complete(pending.response));
+    }
+
+    private static class PendingInsert
+    {
+        private final SurveyResponse response;
+        private final CompletableFuture<SurveyResponse> result = new CompletableFuture<>();
+        // Set once, by whichever comes first: the flusher taking the row into a batch, or its caller giving up on it
+        private final AtomicBoolean decided = new AtomicBoolean();
+
+        private PendingInsert(SurveyResponse response)
+        {
+            this.response = response;
+        }
+
+        /**
+         * @return true if the row may be written, false if its caller has already given up on it
+         */
+        private boolean claim()
+        {
+            return decided.compareAndSet(false, true);
+        }
+
+        /**
+         * @return true if the row will not be written, false if it has already been taken into a batch
+         */
+        private boolean withdraw()
+        {
+            return decided.compareAndSet(false, true);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.labkey.response;
+
+import org.jetbrains.annotations.NotNull;
+import org.labkey.api.data.Container;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which survey designs and participant properties designs have already been applied to a study's lists,
+ * so that steady-state shredding doesn't query the database or the design provider for every response.
+ *
+ * Survey versions never change once published, so they stay cached until the study's container is purged or its
+ * design is explicitly refreshed. Participant properties have a single, changing version per study and are re-checked
+ * against the design provider periodically.
+ */
+class KnownDesignCache
+{
+    private static final long PARTICIPANT_PROPERTIES_CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(15);
+
+    // Keyed by container id
+    private final Map<String, Set<String>> _surveyVersions = new ConcurrentHashMap<>();
+    private final Map<String, Long> _participantPropertiesChecked = new ConcurrentHashMap<>();
+
+    boolean isKnownSurveyVersion(@NotNull Container c, @NotNull String activityId, @NotNull String version)
+    {
+        Set<String> versions = _surveyVersions.get(c.getId());
+        return versions != null && versions.contains(getSurveyVersionKey(activityId, version));
+    }
+
+    void addSurveyVersion(@NotNull Container c, @NotNull String activityId, @NotNull String version)
+    {
+        _surveyVersions.computeIfAbsent(c.getId(), id -> ConcurrentHashMap.newKeySet()).add(getSurveyVersionKey(activityId, version));
+    }
+
+    /**
+     * @return true if the participant properties design was applied or checked recently enough to skip checking it again
+     */
+    boolean isParticipantPropertiesCurrent(@NotNull Container c)
+    {
+        Long checked = _participantPropertiesChecked.get(c.getId());
+        return checked != null && System.currentTimeMillis() - checked < PARTICIPANT_PROPERTIES_CHECK_INTERVAL;
+    }
+
+    void setParticipantPropertiesChecked(@NotNull Container c)
+    {
+        _participantPropertiesChecked.put(c.getId(), System.currentTimeMillis());
+    }
+
+    void invalidate(@NotNull Container c)
+    {
+        _surveyVersions.remove(c.getId());
+        _participantPropertiesChecked.remove(c.getId());
+    }
+
+    private String getSurveyVersionKey(String activityId, String version)
+    {
+        return activityId + "/" + version;
+    }
+}
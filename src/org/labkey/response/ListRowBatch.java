@@ -0,0 +1,129 @@
+package org.labkey.response;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.collections.CaseInsensitiveHashSet;
+import org.labkey.api.data.Container;
+import org.labkey.api.query.BatchValidationException;
+import org.labkey.api.query.QueryUpdateService;
+import org.labkey.api.security.User;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects the list rows generated while shredding a single survey response so that each survey list can be written
+ * with one insertRows call. Lists are flushed in the order they were first seen; since a parent row is always added
+ * before any of its children, every parent list is inserted (and its generated keys known) before its child lists.
+ */
+class ListRowBatch
+{
+    private final Container _container;
+    private final User _user;
+    private final Map<String, ListRows> _lists = new LinkedHashMap<>();
+
+    ListRowBatch(@NotNull Container container, @NotNull User user)
+    {
+        _container = container;
+        _user = user;
+    }
+
+    /**
+     * Queue a row for insert
+     * @param list plan for the list the row belongs to
+     * @param data values for the new row
+     * @param parent (optional) row this row is a child of, its key is copied into parentKeyName at flush time
+     * @param parentKeyName (optional) name of the column holding the parent key
+     * @return a handle for the pending row, whose key is available after {@link #flush()}
+     */
+    PendingRow addRow(@NotNull ShredPlan list, @NotNull Map<String, Object> data, @Nullable PendingRow parent, @Nullable String parentKeyName)
+    {
+        PendingRow row = new PendingRow(data, parent, parentKeyName);
+        _lists.computeIfAbsent(list.getName(), name -> new ListRows(list)).add(row);
+        return row;
+    }
+
+    /**
+     * Insert all queued rows, one insertRows call per list
+     * @throws Exception if a list has no update service or the insert fails
+     */
+    void flush() throws Exception
+    {
+        for (ListRows list : _lists.values())
+            list.insert(_container, _user);
+    }
+
+    static class PendingRow
+    {
+        private final Map<String, Object> _data;
+        private final PendingRow _parent;
+        private final String _parentKeyName;
+        private Integer _key;
+
+        private PendingRow(Map<String, Object> data, PendingRow parent, String parentKeyName)
+        {
+            _data = data;
+            _parent = parent;
+            _parentKeyName = parentKeyName;
+        }
+
+        /**
+         * @return the list key generated for this row, null until the batch has been flushed
+         */
+        Integer getKey()
+        {
+            return _key;
+        }
+    }
+
+    private static class ListRows
+    {
+        private final ShredPlan _list;
+        private final List<PendingRow> _rows = new ArrayList<>();
+
+        private ListRows(ShredPlan list)
+        {
+            _list = list;
+        }
+
+        private void add(PendingRow row)
+        {
+            _rows.add(row);
+        }
+
+        private void insert(Container container, User user) throws Exception
+        {
+            QueryUpdateService qus = _list.getUpdateService();
+            if (qus == null)
+                throw new IllegalStateException("Unable to get update service for table " + _list.getName());
+
+            // Resolve parent keys and give every row the same set of columns so the list import sees a uniform batch
+            Set<String> columns = new CaseInsensitiveHashSet();
+            List<Map<String, Object>> data = new ArrayList<>(_rows.size());
+            for (PendingRow row : _rows)
+            {
+                if (row._parent != null)
+                {
+                    if (row._parent._key == null)
+                        throw new IllegalStateException("Parent row for list '" + _list.getName() + "' has not been inserted");
+                    row._data.put(row._parentKeyName, row._parent._key);
+                }
+                columns.addAll(row._data.keySet());
+                data.add(row._data);
+            }
+            for (Map<String, Object> row : data)
+                columns.forEach(column -> row.putIfAbsent(column, null));
+
+            BatchValidationException exception = new BatchValidationException();
+            List<Map<String, Object>> inserted = qus.insertRows(user, container, data, exception, null, null);
+            if (exception.hasErrors())
+                throw exception;
+
+            for (int i = 0; i < _rows.size(); i++)
+                _rows.get(i)._key = (Integer) inserted.get(i).get("Key");
+        }
+    }
+}
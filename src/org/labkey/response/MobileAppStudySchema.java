@@ -32,6 +32,8 @@ public class MobileAppStudySchema
     public static final String PARTICIPANT_STATUS_TABLE = "ParticipantStatus";
     public static final String RESPONSE_TABLE = "Response";
     public static final String RESPONSE_METADATA_TABLE = "ResponseMetadata";
+    public static final String RESPONSE_ARCHIVE_TABLE = "ResponseArchive";
+    public static final String FORWARDING_ATTEMPT_TABLE = "ForwardingAttempt";
     public static final String RESPONSE_STATUS_TABLE = "ResponseStatus";
     public static final String PARTICIPANT_PROPERTY_METADATA_TABLE = "ParticipantPropertyMetadata";
     public static final String PARTICIPANT_PROPERTY_TYPE_TABLE = "ParticipantPropertyType";
@@ -86,6 +88,14 @@ public class MobileAppStudySchema
     {
         return getSchema().getTable(RESPONSE_METADATA_TABLE);
     }
+    public TableInfo getTableInfoResponseArchive()
+    {
+        return getSchema().getTable(RESPONSE_ARCHIVE_TABLE);
+    }
+    public TableInfo getTableInfoForwardingAttempt()
+    {
+        return getSchema().getTable(FORWARDING_ATTEMPT_TABLE);
+    }
     public TableInfo getTableInfoParticipantPropertyMetadata()
     {
         return getSchema().getTable(PARTICIPANT_PROPERTY_METADATA_TABLE);
@@ -0,0 +1,111 @@
+package org.labkey.response;
+
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.labkey.api.util.SystemMaintenance.MaintenanceTask;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Nightly system maintenance task that moves the survey response JSON of processed and forwarded responses older
+ * than the configured age out of mobileappstudy.Response into gzip-compressed mobileappstudy.ResponseArchive rows.
+ * Archived data is restored transparently by {@link ResponseManager} whenever a response's data is requested.
+ */
+class ResponseArchiver implements MaintenanceTask
+{
+    private static final int PAGE_SIZE = 500;
+
+    @Override
+    public String getDescription()
+    {
+        return "Archive processed MyStudies survey responses";
+    }
+
+    @Override
+    public String getName()
+    {
+        return "MyStudiesResponseArchive";
+    }
+
+    @Override
+    public void run(Logger log)
+    {
+        int days = ResponseModule.getIntModuleProperty(ResponseModule.ARCHIVE_AFTER_DAYS_PROPERTY, ResponseModule.DEFAULT_ARCHIVE_AFTER_DAYS);
+        if (days <= 0)
+        {
+            log.info("Survey response archiving is disabled");
+            return;
+        }
+
+        Date cutoff = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days));
+        int archived = archive(cutoff);
+        log.info(String.format("Archived %1$s survey response(s) created before %2$s", archived, cutoff));
+    }
+
+    /**
+     * Archive the data of all processed and forwarded responses created before the cutoff
+     * @param cutoff only responses created before this are archived
+     * @return the number of responses archived
+     */
+    static int archive(@NotNull Date cutoff)
+    {
+        int lastRowId = 0;
+        int archived = 0;
+        List<Integer> page;
+        do
+        {
+            page = ResponseManager.get().getArchivableResponseIds(cutoff, lastRowId, PAGE_SIZE);
+            if (!page.isEmpty())
+            {
+                archived += ResponseManager.get().archiveResponseData(page);
+                lastRowId = page.get(page.size() - 1);
+            }
+        }
+        while (page.size() == PAGE_SIZE);
+
+        return archived;
+    }
+
+    static byte[] compress(@NotNull String data)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes))
+        {
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static String decompress(byte[] data)
+    {
+        return new String(decompressBytes(data), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the archived response JSON as UTF-8 bytes
+     */
+    static byte[] decompressBytes(byte[] data)
+    {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data)))
+        {
+            return in.readAllBytes();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -72,6 +72,7 @@ import org.labkey.response.data.MobileAppStudy;
 import org.labkey.response.data.Participant;
 import org.labkey.response.data.SurveyMetadata;
 import org.labkey.response.data.SurveyResponse;
+import org.labkey.response.forwarder.ForwardingScheduler;
 import org.labkey.response.forwarder.ForwardingType;
 import org.labkey.response.participantproperties.ParticipantProperty;
 import org.labkey.response.query.ReadResponsesQuerySchema;
@@ -88,7 +89,9 @@ import org.springframework.web.servlet.ModelAndView;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -283,7 +286,7 @@ public class ResponseController extends SpringActionController
 
             //Add a parsing job
             final Integer rowId = resp.getRowId();
-            manager.enqueueSurveyResponse(() -> ResponseManager.get().shredSurveyResponse(rowId, getUser()));
+            manager.enqueueSurveyResponse(rowId, getUser());
 
             return success();
         }
@@ -449,6 +452,77 @@ public class ResponseController extends SpringActionController
         }
     }
 
+    /**
+     * Find the responses in this container by their start/end times or result keys. The filtering is done by the
+     * database, so response data is never loaded. Archived responses can't be searched, so how many there are is
+     * returned too.
+     */
+    @RequiresPermission(AdminPermission.class)
+    public class FindResponsesAction extends ReadOnlyApiAction<FindResponsesForm>
+    {
+        @Override
+        public Object execute(FindResponsesForm form, BindException errors)
+        {
+            List<Integer> rowIds = ResponseManager.get().findResponseIds(getContainer(), form.getStartTime(), form.getEndTime(), StringUtils.trimToNull(form.getResultKey()));
+            return success(PageFlowUtil.map("rowIds", rowIds, "archivedNotSearched", ResponseManager.get().countArchivedResponses(getContainer())));
+        }
+    }
+
+    /**
+     * Survey response shredder queue depth, counters, and phase timings since server start
+     */
+    @RequiresSiteAdmin
+    public static class ShredderMetricsAction extends ReadOnlyApiAction<Object>
+    {
+        @Override
+        public Object execute(Object form, BindException errors)
+        {
+            return success(ResponseManager.get().getShredderMetrics(true));
+        }
+    }
+
+    /**
+     * Forwarding backlog for this container: responses waiting to be forwarded, the age of the oldest, and how many are
+     * waiting for a retry or have been parked after too many failed attempts. Also the outcome of the latest run.
+     */
+    @RequiresPermission(AdminPermission.class)
+    public class ForwardingStatusAction extends ReadOnlyApiAction<Object>
+    {
+        @Override
+        public Object execute(Object form, BindException errors)
+        {
+            Map<String, Object> status = ResponseManager.get().getForwardingStatus(getContainer());
+            status.put("lastRun", ForwardingScheduler.get().getLastRun(getContainer()));
+            return success(status);
+        }
+    }
+
+    /**
+     * Give parked responses in this container a fresh set of forwarding attempts
+     */
+    @RequiresPermission(AdminPermission.class)
+    public class RetryParkedResponsesAction extends MutatingApiAction<Object>
+    {
+        @Override
+        public Object execute(Object form, BindException errors)
+        {
+            return success(PageFlowUtil.map("countRetried", ResponseManager.get().retryParkedResponses(getContainer())));
+        }
+    }
+
+    /**
+     * Archive the data of all processed and forwarded responses now, regardless of the configured archive age
+     */
+    @RequiresSiteAdmin
+    public static class ArchiveResponsesAction extends MutatingApiAction<Object>
+    {
+        @Override
+        public Object execute(Object form, BindException errors)
+        {
+            return success(PageFlowUtil.map("countArchived", ResponseArchiver.archive(new Date())));
+        }
+    }
+
     @RequiresPermission(AdminPermission.class)
     public class ReprocessResponseAction extends MutatingApiAction<ReprocessResponseForm>
     {
@@ -670,6 +744,46 @@ public class ResponseController extends SpringActionController
     }
 
 
+    public static class FindResponsesForm
+    {
+        private Date _startTime;
+        private Date _endTime;
+        private String _resultKey;
+
+        public Date getStartTime()
+        {
+            return _startTime;
+        }
+
+        @SuppressWarnings("unused")
+        public void setStartTime(Date startTime)
+        {
+            _startTime = startTime;
+        }
+
+        public Date getEndTime()
+        {
+            return _endTime;
+        }
+
+        @SuppressWarnings("unused")
+        public void setEndTime(Date endTime)
+        {
+            _endTime = endTime;
+        }
+
+        public String getResultKey()
+        {
+            return _resultKey;
+        }
+
+        @SuppressWarnings("unused")
+        public void setResultKey(String resultKey)
+        {
+            _resultKey = resultKey;
+        }
+    }
+
     public static class StudyConfigForm
     {
         private String _shortName;
@@ -1011,6 +1125,11 @@ public class ResponseController extends SpringActionController
         private String tokenField;
         private String header;
         private String oauthURL;
+        private Integer maxInFlight;
+        private boolean preserveParticipantOrder = true;
+        private Integer batchSize;
+        private Integer batchMaxKB;
+        private boolean compressRequests;
 
         public ForwardingType getForwardingType ()
         {
@@ -1092,6 +1211,55 @@ public class ResponseController extends SpringActionController
             this.oauthURL = oauthURL;
         }
 
+        public Integer getMaxInFlight()
+        {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(Integer maxInFlight)
+        {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public boolean isPreserveParticipantOrder()
+        {
+            return preserveParticipantOrder;
+        }
+
+        public void setPreserveParticipantOrder(boolean preserveParticipantOrder)
+        {
+            this.preserveParticipantOrder = preserveParticipantOrder;
+        }
+
+        public Integer getBatchSize()
+        {
+            return batchSize;
+        }
+
+        public void setBatchSize(Integer batchSize)
+        {
+            this.batchSize = batchSize;
+        }
+
+        public Integer getBatchMaxKB()
+        {
+            return batchMaxKB;
+        }
+
+        public void setBatchMaxKB(Integer batchMaxKB)
+        {
+            this.batchMaxKB = batchMaxKB;
+        }
+
+        public boolean isCompressRequests()
+        {
+            return compressRequests;
+        }
+
+        public void setCompressRequests(boolean compressRequests)
+        {
+            this.compressRequests = compressRequests;
+        }
     }
 
 
@@ -22,28 +22,28 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
 import org.labkey.api.collections.ArrayListMap;
 import org.labkey.api.data.ColumnInfo;
 import org.labkey.api.data.CompareType;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DbScope;
-import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.Results;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.Selector;
 import org.labkey.api.data.SimpleFilter;
+import org.labkey.api.data.Sort;
 import org.labkey.api.data.SqlExecutor;
 import org.labkey.api.data.SqlSelector;
 import org.labkey.api.data.Table;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.TableSelector;
-import org.labkey.api.exceptions.OptimisticConflictException;
 import org.labkey.api.exp.ObjectProperty;
 import org.labkey.api.exp.list.ListDefinition;
 import org.labkey.api.exp.list.ListItem;
 import org.labkey.api.exp.list.ListService;
-import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.InvalidKeyException;
 import org.labkey.api.query.QueryUpdateService;
@@ -56,7 +56,6 @@ import org.labkey.api.security.roles.SubmitterRole;
 import org.labkey.api.util.ChecksumUtil;
 import org.labkey.api.util.ContainerUtil;
 import org.labkey.api.util.GUID;
-import org.labkey.api.util.JobRunner;
 import org.labkey.api.util.Pair;
 import org.labkey.response.data.EnrollmentToken;
 import org.labkey.response.data.EnrollmentTokenBatch;
@@ -69,9 +68,10 @@ import org.labkey.response.data.SurveyResponse.ResponseStatus;
 import org.labkey.response.data.SurveyResult;
 import org.labkey.response.data.TextChoiceResult;
 import org.labkey.response.forwarder.ForwarderProperties;
+import org.labkey.response.forwarder.ForwardingCircuitBreaker;
 import org.labkey.response.forwarder.ForwardingScheduler;
 import org.labkey.response.forwarder.ForwardingType;
-import org.labkey.response.forwarder.SurveyResponseForwardingJob;
+import org.labkey.response.forwarder.OAuthForwarder;
 import org.labkey.response.participantproperties.ParticipantPropertiesProcessor;
 import org.labkey.response.participantproperties.ParticipantProperty;
 import org.labkey.response.surveydesign.FileSurveyDesignProvider;
@@ -87,13 +87,19 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class ResponseManager
 {
@@ -101,20 +107,55 @@ public class ResponseManager
     private static final String TRUNCATED_MESSAGE_SUFFIX =  "... (message truncated)";
     private static final Integer ERROR_MESSAGE_MAX_SIZE = 1000 - TRUNCATED_MESSAGE_SUFFIX.length();
     private static final Integer TOKEN_SIZE = 8;
+    private static final int GROUP_COMMIT_BATCH_SIZE = 200;
+    private static final int METADATA_INSERT_BATCH_SIZE = 1000; // 9 parameters per row, keeps each statement well under the JDBC parameter limit
     private static final String TOKEN_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
     private static final ResponseManager _instance = new ResponseManager();
     private static final ChecksumUtil _checksumUtil = new ChecksumUtil(TOKEN_CHARS);
 
-    private static final int THREAD_COUNT = 10;
-    private static JobRunner _shredder;
     private static final Logger logger = LogManager.getLogger(MobileAppStudy.class);
+    private static final int DESIGN_LOCK_STRIPES = 64;
+    private final Lock[] _designLocks = new Lock[DESIGN_LOCK_STRIPES];
+    private final KnownDesignCache _knownDesigns = new KnownDesignCache();
+    private final Cache<String, ShredPlan> _shredPlans = CacheManager.getCache(1000, TimeUnit.MINUTES.toMillis(10), "MyStudies survey list shred plans");
+    private final Map<String, Integer> _shredPlanGenerations = new ConcurrentHashMap<>();
+    private final Cache<String, Pair<Participant, MobileAppStudy>> _appTokenCache = CacheManager.getCache(10000, TimeUnit.HOURS.toMillis(1), "MyStudies participants by appToken");
+    private ResponseShreddingQueue _shredder;
+    private GroupCommitResponseWriter _responseWriter; // null unless group commit is enabled
+    private final ShredderMetrics _metrics = new ShredderMetrics();
 
     public static final String OTHER_OPTION_TITLE = "_Other_Text";
 
+    /**
+     * Which mobileappstudy.Response columns to select. The Data column holds the full survey response JSON, so only
+     * select it when the payload is actually needed.
+     */
+    public enum ResponseProjection
+    {
+        /** Every column except Data */
+        HEADER(Set.of("RowId", "ParticipantId", "AppToken", "SurveyVersion", "ActivityId", "Language", "Status",
+                "Processed", "ProcessedBy", "ErrorMessage", "Container", "Created")),
+        /** Every column, including Data */
+        FULL(null);
+
+        private final Set<String> _columns;
+
+        ResponseProjection(@Nullable Set<String> columns)
+        {
+            _columns = columns;
+        }
+
+        private TableSelector getSelector(@Nullable SimpleFilter filter, @Nullable Sort sort)
+        {
+            TableInfo table = MobileAppStudySchema.getInstance().getTableInfoResponse();
+            return _columns == null ? new TableSelector(table, filter, sort) : new TableSelector(table, _columns, filter, sort);
+        }
+    }
+
     private ResponseManager()
     {
-        if (_shredder == null)
-            _shredder = new JobRunner("MobileAppResponseShredder", THREAD_COUNT);
+        for (int i = 0; i < _designLocks.length; i++)
+            _designLocks[i] = new ReentrantLock();
     }
 
     public static ResponseManager get()
@@ -126,14 +167,17 @@ public class ResponseManager
     {
         ForwardingScheduler.get().schedule();
 
+        _shredder = new ResponseShreddingQueue(
+                ResponseModule.getIntModuleProperty(ResponseModule.SHREDDER_THREAD_COUNT_PROPERTY, ResponseModule.DEFAULT_SHREDDER_THREAD_COUNT),
+                ResponseModule.getIntModuleProperty(ResponseModule.SHREDDER_QUEUE_CAPACITY_PROPERTY, ResponseModule.DEFAULT_SHREDDER_QUEUE_CAPACITY),
+                this::shredSurveyResponse, _metrics);
+
+        int groupCommitInterval = ResponseModule.getIntModuleProperty(ResponseModule.GROUP_COMMIT_INTERVAL_PROPERTY, ResponseModule.DEFAULT_GROUP_COMMIT_INTERVAL);
+        if (groupCommitInterval > 0)
+            _responseWriter = new GroupCommitResponseWriter(GROUP_COMMIT_BATCH_SIZE, groupCommitInterval);
+
         //Pick up any pending shredder jobs that might have been lost at shutdown/crash/etc
-        Collection<Integer> pendingResponses = getPendingResponseIds();
-        if (pendingResponses != null)
-        {
-            pendingResponses.forEach(rowId ->
-                enqueueSurveyResponse(() -> shredSurveyResponse(rowId, null))
-            );
-        }
+        _shredder.requestRecovery();
     }
 
     /**
@@ -372,6 +416,8 @@ public class ResponseManager
         try (DbScope.Transaction transaction = schema.getSchema().getScope().ensureTransaction())
         {
             ContainerUtil.purgeTable(schema.getTableInfoEnrollmentToken(), c, null); //Has a FKs to TokenBatch and Participant tables
+            ContainerUtil.purgeTable(schema.getTableInfoResponseArchive(), c, null);   //Has a FK to response table
+            ContainerUtil.purgeTable(schema.getTableInfoForwardingAttempt(), c, null);   //Has a FK to response table
             ContainerUtil.purgeTable(schema.getTableInfoResponse(), c, null);   //Has a FK to participant table
             ContainerUtil.purgeTable(schema.getTableInfoParticipant(), c, null); //Has a FK to study table
             ContainerUtil.purgeTable(schema.getTableInfoEnrollmentTokenBatch(), c, null);
@@ -385,6 +431,13 @@ public class ResponseManager
         {
             throw new RuntimeException(e);
         }
+        finally
+        {
+            ForwardingScheduler.get().containerDeleted(c);
+            _knownDesigns.invalidate(c);
+            _appTokenCache.clear();
+            invalidateShredPlans(c);
+        }
     }
 
 
@@ -566,6 +619,9 @@ public class ResponseManager
      */
     public MobileAppStudy insertOrUpdateStudy(@NotNull String shortName, boolean collectionEnabled, @NotNull Container container, @NotNull User user)
     {
+        // Cached appToken entries hold the study settings (e.g. collectionEnabled)
+        _appTokenCache.clear();
+
         MobileAppStudy study = getStudy(container);
         if (study == null)
             return insertStudy(shortName, collectionEnabled, container, user);
@@ -574,12 +630,27 @@ public class ResponseManager
     }
 
     /**
-     * Add response processing job to queue
-     * @param run Runnable to add to processing queue
+     * Add a newly submitted response to the processing queue. If the queue is full the response is left PENDING and
+     * will be picked up by the recovery feeder.
+     * @param rowId mobileappstudy.Response.RowId to process
+     * @param user the user initiating the shredding request, often guest or null
      */
-    void enqueueSurveyResponse(@NotNull Runnable run)
+    void enqueueSurveyResponse(@NotNull Integer rowId, @Nullable User user)
     {
-        _shredder.execute(run);
+        _metrics.submitted();
+        if (!_shredder.enqueue(rowId, user, ResponseShreddingQueue.Priority.SUBMISSION))
+            _metrics.deferred();
+    }
+
+    /**
+     * Shredder counters and timings since server start
+     * @param includeStudies whether to include per-study counters, which name the studies
+     * @return metrics as a JSON-friendly map
+     */
+    @NotNull
+    Map<String, Object> getShredderMetrics(boolean includeStudies)
+    {
+        return _metrics.toMap(_shredder == null ? 0 : _shredder.getQueuedCount(), includeStudies);
     }
 
     /**
@@ -590,29 +661,61 @@ public class ResponseManager
     void shredSurveyResponse(@NotNull Integer rowId, @Nullable User user)
     {
         SurveyResponse surveyResponse = getResponse(rowId);
-        MobileAppStudy study = ResponseManager.get().getStudyFromAppToken(surveyResponse.getAppToken());
 
-        if (surveyResponse != null)
+        if (surveyResponse != null && surveyResponse.getStatus() != ResponseStatus.PENDING)
+        {
+            //Already handled by another request, e.g. recovered while its submission was still queued
+            logger.debug(String.format("Skipping response %1$s, status is %2$s", rowId, surveyResponse.getStatus()));
+            _metrics.skipped();
+        }
+        else if (surveyResponse != null)
         {
+            long start = System.nanoTime();
+            MobileAppStudy study = ResponseManager.get().getStudyFromAppToken(surveyResponse.getAppToken());
+            String studyId = study == null ? null : study.getShortName();
             try
             {
+                long phaseStart = System.nanoTime();
                 updateDesign(study, surveyResponse, user);
+                _metrics.record(ShredderMetrics.Phase.DesignCheck, phaseStart);
                 logger.info(String.format("Processing response %1$s in container %2$s", rowId, surveyResponse.getContainer().getName()));
 
-                this.store(surveyResponse, rowId, user);
-                this.updateProcessingStatus(user, rowId, ResponseStatus.PROCESSED);
+                // Store the list rows and mark the response PROCESSED together, so if another thread or server
+                // processed the response in the meantime its list rows aren't stored twice
+                try (DbScope.Transaction transaction = MobileAppStudySchema.getInstance().getSchema().getScope().ensureTransaction())
+                {
+                    this.store(surveyResponse, rowId, user);
+                    phaseStart = System.nanoTime();
+                    boolean updated = this.updateProcessingStatus(user, rowId, ResponseStatus.PENDING, ResponseStatus.PROCESSED);
+                    phaseStart = _metrics.record(ShredderMetrics.Phase.StatusUpdate, phaseStart);
+                    if (!updated)
+                    {
+                        logger.debug(String.format("Skipping response %1$s, it is no longer pending", rowId));
+                        _metrics.skipped();
+                        return;
+                    }
+                    transaction.commit();
+                    _metrics.record(ShredderMetrics.Phase.Commit, phaseStart);
+                }
+                _metrics.processed(studyId);
                 logger.info(String.format("Processed response %1$s in container %2$s", rowId, surveyResponse.getContainer().getName()));
-                enqueueForwardingJob(user, surveyResponse.getContainer());
+                ForwardingScheduler.get().requestForwarding(surveyResponse.getContainer());
             }
             catch (InvalidDesignException e)
             {
-                logger.error(String.format("Failed to update survey design: StudyId: %1$s, ActivityId: %2$s, version: %3$s", study.getShortName(),  surveyResponse.getActivityId(), surveyResponse.getSurveyVersion()), e);
-                this.updateProcessingStatus(user, rowId, ResponseStatus.ERROR, e.getMessage());
+                logger.error(String.format("Failed to update survey design: StudyId: %1$s, ActivityId: %2$s, version: %3$s", studyId,  surveyResponse.getActivityId(), surveyResponse.getSurveyVersion()), e);
+                this.updateProcessingStatus(user, rowId, ResponseStatus.PENDING, ResponseStatus.ERROR, e.getMessage());
+                _metrics.error(studyId);
             }
             catch (Exception e)
             {
                 logger.error("Error processing response " + rowId + " in container " + surveyResponse.getContainer().getName(), e);
-                this.updateProcessingStatus(user, rowId, ResponseStatus.ERROR, e instanceof NullPointerException ? "NullPointerException" : e.getMessage());
+                this.updateProcessingStatus(user, rowId, ResponseStatus.PENDING, ResponseStatus.ERROR, e instanceof NullPointerException ? "NullPointerException" : e.getMessage());
+                _metrics.error(studyId);
+            }
+            finally
+            {
+                _metrics.record(ShredderMetrics.Phase.Total, start);
             }
         }
         else
@@ -623,46 +726,85 @@ public class ResponseManager
 
 
     /**
-     * Provide common synchronization block for updating study's survey & properties lists
-     * @param study study to update
+     * Update the study's participant properties list and, if a response is provided, its activity's survey lists, in a
+     * single transaction. Updates are guarded by locks for just the study (participant properties) and the study's
+     * activity (survey lists), so responses for unrelated studies or activities don't wait on one another.
+     *
+     * Designs are checked once without the locks so already-applied designs never wait, and again once the locks are
+     * held since another thread may have applied them in the meantime. Applied designs are cached, so in the steady
+     * state neither check queries the database. The activity lock covers every version of the activity because all
+     * versions share the same survey lists.
+     * @param study study to update (can be null, in which case nothing is updated and IllegalStateException is thrown)
      * @param surveyResponse (can be null) if provided use to update activity's survey lists
      * @param user executing response (can be null)
-     * @throws Exception
+     * @throws InvalidDesignException If design schema cannot be applied
      */
-    private synchronized void updateDesign(@Nullable MobileAppStudy study, @Nullable SurveyResponse surveyResponse, @Nullable User user) throws Exception
+    private void updateDesign(@Nullable MobileAppStudy study, @Nullable SurveyResponse surveyResponse, @Nullable User user) throws Exception
     {
+        if (study == null)
+            throw new IllegalStateException("No study associated with this response or folder");
+
+        if (isParticipantPropertiesCurrent(study) && (surveyResponse == null || isKnownVersion(study, surveyResponse)))
+            return;
+
+        // Hold the locks until the transaction commits, so no other thread sees a design as unapplied and applies it again
+        List<Lock> locks = getDesignLocks(study, surveyResponse);
+        locks.forEach(Lock::lock);
         try (DbScope.Transaction transaction = MobileAppStudySchema.getInstance().getSchema().getScope().ensureTransaction())
         {
-            updateParticipantProperties(study, user);
+            if (!isParticipantPropertiesCurrent(study))
+            {
+                new ParticipantPropertiesProcessor(logger).updateParticipantPropertiesDesign(study, user);
+                transaction.addCommitTask(() -> _knownDesigns.setParticipantPropertiesChecked(study.getContainer()), DbScope.CommitTaskOption.POSTCOMMIT);
+            }
 
-            if (surveyResponse != null)
-                updateSurveys(surveyResponse, user);
+            if (surveyResponse != null && !isKnownVersion(study, surveyResponse))
+            {
+                new SurveyDesignProcessor(logger).updateSurveyDesign(surveyResponse, user);
+                transaction.addCommitTask(() -> _knownDesigns.addSurveyVersion(study.getContainer(), surveyResponse.getActivityId(), surveyResponse.getSurveyVersion()), DbScope.CommitTaskOption.POSTCOMMIT);
+            }
 
             transaction.commit();
         }
+        finally
+        {
+            locks.forEach(Lock::unlock);
+        }
     }
 
-    private void updateParticipantProperties(MobileAppStudy study, User user) throws Exception
+    private boolean isParticipantPropertiesCurrent(@NotNull MobileAppStudy study)
     {
-        new ParticipantPropertiesProcessor(logger).updateParticipantPropertiesDesign(study, user);
+        return _knownDesigns.isParticipantPropertiesCurrent(study.getContainer());
+    }
+
+    private boolean isKnownVersion(@NotNull MobileAppStudy study, @NotNull SurveyResponse surveyResponse)
+    {
+        if (_knownDesigns.isKnownSurveyVersion(study.getContainer(), surveyResponse.getActivityId(), surveyResponse.getSurveyVersion()))
+            return true;
+
+        boolean known = isKnownVersion(surveyResponse.getAppToken(), surveyResponse.getActivityId(), surveyResponse.getSurveyVersion(), surveyResponse.getRowId());
+        if (known)
+            _knownDesigns.addSurveyVersion(study.getContainer(), surveyResponse.getActivityId(), surveyResponse.getSurveyVersion());
+
+        return known;
     }
 
     /**
-     * Check if survey was previously seen, if not retrieve schema and apply
-     *
-     * note: assumes caller has synchronized access and opened transaction
-     * @param surveyResponse that was sent, includes SurveyId and Version
-     * @param user executing response (can be null)
-     * @throws InvalidDesignException If design schema cannot be applied
+     * Get the locks guarding design changes for a study's participant properties and, if a response is provided, its
+     * activity's survey lists. Locks are striped, so unrelated keys may occasionally share a lock; they are returned in
+     * stripe order, so threads acquiring them in that order can't deadlock.
      */
-    private void updateSurveys(@NotNull SurveyResponse surveyResponse, @Nullable User user) throws Exception
+    private List<Lock> getDesignLocks(@NotNull MobileAppStudy study, @Nullable SurveyResponse surveyResponse)
     {
-        //If we've seen this activity metadata before continue
-        if (isKnownVersion(surveyResponse.getAppToken(), surveyResponse.getActivityId(), surveyResponse.getSurveyVersion(), surveyResponse.getRowId()))
-            return;
+        IntStream stripes = surveyResponse == null ?
+            IntStream.of(getDesignStripe(study.getRowId())) :
+            IntStream.of(getDesignStripe(study.getRowId()), getDesignStripe(study.getRowId(), surveyResponse.getActivityId()));
+        return stripes.distinct().sorted().mapToObj(i -> _designLocks[i]).collect(Collectors.toList());
+    }
 
-        //Else retrieve and apply any changes
-        new SurveyDesignProcessor(logger).updateSurveyDesign(surveyResponse, user);
+    private int getDesignStripe(Object... keyParts)
+    {
+        return Math.floorMod(Arrays.hashCode(keyParts), _designLocks.length);
     }
 
     /**
@@ -672,25 +814,140 @@ public class ResponseManager
      */
     @Nullable
     SurveyResponse getResponse(@NotNull Integer rowId)
+    {
+        return getResponse(rowId, ResponseProjection.FULL);
+    }
+
+    /**
+     * Get Response from DB
+     * @param rowId mobileappstudy.Response.RowId to retrieve
+     * @param projection columns to retrieve
+     * @return SurveyResponse object representing row, or null if not found
+     */
+    @Nullable
+    public SurveyResponse getResponse(@NotNull Integer rowId, @NotNull ResponseProjection projection)
     {
         FieldKey fkey = FieldKey.fromParts("rowId");
         SimpleFilter filter = new SimpleFilter(fkey, rowId);
 
-        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), filter, null)
-                .getObject(SurveyResponse.class);
+        SurveyResponse response = projection.getSelector(filter, null).getObject(SurveyResponse.class);
+        if (response != null && projection == ResponseProjection.FULL && response.getData() == null)
+            response.setData(getArchivedData(rowId));
+
+        return response;
+    }
+
+    /**
+     * Get just the survey response JSON of a Response, e.g., for one fetched with {@link ResponseProjection#HEADER}. The
+     * JSON is returned as UTF-8 bytes, without decoding it into a String, so it can be sent on as it is. Archived data
+     * is restored from mobileappstudy.ResponseArchive.
+     * @param rowId mobileappstudy.Response.RowId to retrieve
+     * @return the response data, or null if not found
+     */
+    @Nullable
+    public byte[] getResponseDataBytes(@NotNull Integer rowId)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT convert_to(Data, 'UTF8') FROM ").append(schema.getTableInfoResponse().getSelectName())
+                .append(" WHERE RowId = ?").add(rowId);
+        byte[] data = new SqlSelector(schema.getSchema(), sql).getObject(byte[].class);
+        if (data != null)
+            return data;
+
+        byte[] archived = getArchivedBytes(rowId);
+        return archived == null ? null : ResponseArchiver.decompressBytes(archived);
+    }
+
+    @Nullable
+    private String getArchivedData(@NotNull Integer rowId)
+    {
+        byte[] data = getArchivedBytes(rowId);
+        return data == null ? null : ResponseArchiver.decompress(data);
+    }
+
+    @Nullable
+    private byte[] getArchivedBytes(@NotNull Integer rowId)
+    {
+        SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("ResponseId"), rowId);
+        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponseArchive(), Collections.singleton("Data"), filter, null)
+                .getObject(byte[].class);
+    }
+
+    /**
+     * Get a page of RowIds for processed or forwarded responses whose data can be archived
+     * @param createdBefore only responses created before this are archived
+     * @param afterRowId only return RowIds greater than this, i.e., the last RowId of the previous page
+     * @param maxRows page size
+     * @return RowIds in ascending order
+     */
+    @NotNull
+    List<Integer> getArchivableResponseIds(@NotNull Date createdBefore, int afterRowId, int maxRows)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT RowId FROM ").append(schema.getTableInfoResponse().getSelectName())
+                .append(" WHERE Status IN (?, ?)").addAll(ResponseStatus.PROCESSED.getPkId(), ResponseStatus.FORWARDED.getPkId())
+                .append(" AND Created < ?").add(createdBefore)
+                .append(" AND RowId > ?").add(afterRowId)
+                .append(" AND Data IS NOT NULL")
+                .append(" ORDER BY RowId");
+
+        return new SqlSelector(schema.getSchema(), sql).setMaxRows(maxRows).getArrayList(Integer.class);
     }
 
     /**
-     * Get RowIds for responses that are awaiting processing
-     * @return Set of RowIds for responses that are currently in the pending state
+     * Move the data of a set of processed or forwarded responses into compressed mobileappstudy.ResponseArchive rows
+     * @param rowIds of the responses to archive; any that are no longer processed/forwarded or already archived are skipped
+     * @return the number of responses archived
      */
-    public Collection<Integer> getPendingResponseIds()
+    int archiveResponseData(@NotNull List<Integer> rowIds)
     {
-        FieldKey fkey = FieldKey.fromParts("Status");
-        SimpleFilter filter;
-        filter = new SimpleFilter(fkey, ResponseStatus.PENDING.getPkId());
-        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), Collections.singleton("RowId"), filter, null)
-                .getCollection(Integer.class);
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        try (DbScope.Transaction transaction = schema.getSchema().getScope().ensureTransaction())
+        {
+            SQLFragment select = new SQLFragment("SELECT RowId, Container, Data FROM ").append(schema.getTableInfoResponse().getSelectName())
+                    .append(" WHERE Data IS NOT NULL AND Status IN (?, ?)").addAll(ResponseStatus.PROCESSED.getPkId(), ResponseStatus.FORWARDED.getPkId())
+                    .append(" AND RowId");
+            schema.getSqlDialect().appendInClauseSql(select, rowIds);
+            select.append(" FOR UPDATE");
+
+            Date archived = new Date();
+            List<Integer> archivedIds = new ArrayList<>(rowIds.size());
+            SQLFragment insert = new SQLFragment("INSERT INTO ").append(schema.getTableInfoResponseArchive().getSelectName())
+                    .append(" (ResponseId, Data, Archived, Container) VALUES ");
+            new SqlSelector(schema.getSchema(), select).forEach(rs -> {
+                insert.append(archivedIds.isEmpty() ? "" : ", ").append("(?, ?, ?, ?)");
+                insert.addAll(rs.getInt("RowId"), ResponseArchiver.compress(rs.getString("Data")), archived, rs.getString("Container"));
+                archivedIds.add(rs.getInt("RowId"));
+            });
+
+            if (archivedIds.isEmpty())
+                return 0;
+
+            new SqlExecutor(schema.getSchema()).execute(insert);
+
+            SQLFragment clear = new SQLFragment("UPDATE ").append(schema.getTableInfoResponse().getSelectName()).append(" SET Data = NULL WHERE RowId");
+            schema.getSqlDialect().appendInClauseSql(clear, archivedIds);
+            new SqlExecutor(schema.getSchema()).execute(clear);
+
+            transaction.commit();
+            return archivedIds.size();
+        }
+    }
+
+    /**
+     * Get a page of RowIds for responses that are awaiting processing
+     * @param afterRowId only return RowIds greater than this value, use 0 for the first page
+     * @param maxRows page size
+     * @return RowIds for responses that are currently in the pending state, in ascending order
+     */
+    @NotNull
+    public List<Integer> getPendingResponseIds(int afterRowId, int maxRows)
+    {
+        SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("Status"), ResponseStatus.PENDING.getPkId());
+        filter.addCondition(FieldKey.fromParts("RowId"), afterRowId, CompareType.GT);
+        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), Collections.singleton("RowId"), filter, new Sort("RowId"))
+                .setMaxRows(maxRows)
+                .getArrayList(Integer.class);
     }
 
     /**
@@ -701,14 +958,51 @@ public class ResponseManager
      */
     public Collection<SurveyResponse> getResponsesByStatus(ResponseStatus status, @NotNull Container container)
     {
-        FieldKey fkey = FieldKey.fromParts("Status");
-        SimpleFilter filter;
+        return getResponsesByStatus(status, container, ResponseProjection.FULL);
+    }
 
-        filter = SimpleFilter.createContainerFilter(container);
-        filter.addCondition(fkey, status.getPkId());
+    /**
+     * Get the set of responses that are in the specified state, in the order they were submitted
+     * @param status to query
+     * @param container hosting study to be queried
+     * @param projection columns to retrieve
+     * @return Collection of SurveyResponse objects
+     */
+    public Collection<SurveyResponse> getResponsesByStatus(ResponseStatus status, @NotNull Container container, @NotNull ResponseProjection projection)
+    {
+        return restoreArchivedData(projection, projection.getSelector(getStatusFilter(status, container), new Sort("RowId")).getCollection(SurveyResponse.class));
+    }
+
+    private <C extends Collection<SurveyResponse>> C restoreArchivedData(@NotNull ResponseProjection projection, C responses)
+    {
+        if (projection == ResponseProjection.FULL)
+        {
+            responses.stream()
+                .filter(response -> response.getData() == null)
+                .forEach(response -> response.setData(getArchivedData(response.getRowId())));
+        }
+
+        return responses;
+    }
+
+    /**
+     * Get the RowIds of the responses that are in the specified state, in the order they were submitted
+     * @param status to query
+     * @param container hosting study to be queried
+     * @return list of mobileappstudy.Response.RowId
+     */
+    @NotNull
+    public List<Integer> getResponseIdsByStatus(ResponseStatus status, @NotNull Container container)
+    {
+        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), Collections.singleton("RowId"), getStatusFilter(status, container), new Sort("RowId"))
+                .getArrayList(Integer.class);
+    }
 
-        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), filter, null)
-                .getCollection(SurveyResponse.class);
+    private SimpleFilter getStatusFilter(ResponseStatus status, @NotNull Container container)
+    {
+        SimpleFilter filter = SimpleFilter.createContainerFilter(container);
+        filter.addCondition(FieldKey.fromParts("Status"), status.getPkId());
+        return filter;
     }
 
 
@@ -717,14 +1011,13 @@ public class ResponseManager
      * Verify if survey exists
      * @param activityId to verify
      * @param container holding study/survey
-     * @param user executing query
      * @return true if survey found
      */
-    boolean surveyExists(String activityId, Container container, User user)
+    boolean surveyExists(String activityId, Container container)
     {
         try
         {
-            getResultTable(activityId, container, user);
+            getShredPlan(activityId, container);
             return true;
         }
         catch (IllegalStateException e)
@@ -750,6 +1043,40 @@ public class ResponseManager
      */
     @Nullable
     public Participant getParticipantFromAppToken(String appToken)
+    {
+        Pair<Participant, MobileAppStudy> cached = getAppTokenEntry(appToken);
+        return cached == null ? null : cached.first;
+    }
+
+    /**
+     * Look up the participant, and the study it belongs to, for an appToken. Results are cached since every submission
+     * resolves the same appToken several times; entries are evicted when the participant withdraws, when study
+     * settings change, and when a container is purged.
+     * @param appToken to lookup
+     * @return pair of participant and study (study may be null), or null if no participant has the appToken
+     */
+    @Nullable
+    private Pair<Participant, MobileAppStudy> getAppTokenEntry(String appToken)
+    {
+        if (appToken == null)
+            return null;
+
+        Pair<Participant, MobileAppStudy> entry = _appTokenCache.get(appToken);
+        if (entry == null)
+        {
+            Participant participant = selectParticipantFromAppToken(appToken);
+            if (participant == null)
+                return null;
+
+            entry = new Pair<>(participant, selectStudyFromParticipant(participant));
+            _appTokenCache.put(appToken, entry);
+        }
+
+        return entry;
+    }
+
+    @Nullable
+    private Participant selectParticipantFromAppToken(@NotNull String appToken)
     {
         MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
         FieldKey pKey = FieldKey.fromParts("apptoken");
@@ -759,7 +1086,8 @@ public class ResponseManager
     }
 
     /**
-     * Insert new row into the mobileappstudy.Response table
+     * Insert new row into the mobileappstudy.Response table. When group commit is enabled the row is written together
+     * with other concurrent submissions; either way the row is durable when this returns.
      * @param resp to insert
      * @return updated object representing row
      */
@@ -773,9 +1101,97 @@ public class ResponseManager
         resp.setContainer(participant.getContainer());
         resp.setParticipantId(participant.getRowId());
 
+        if (_responseWriter != null)
+        {
+            try
+            {
+                return _responseWriter.insert(resp);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while inserting Response", e);
+            }
+        }
+
+        insertResponseRows(Collections.singletonList(resp));
+        return resp;
+    }
+
+    /**
+     * Insert rows into the mobileappstudy.Response table with a single statement, setting the RowId and Created of
+     * each response. Data is stored as the submitted text.
+     * @param responses fully populated responses, including container and participantId
+     */
+    void insertResponseRows(@NotNull List<SurveyResponse> responses)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        Date created = new Date();
+
+        // Allocate the RowIds up front and insert them explicitly. PostgreSQL guarantees neither the order in which a
+        // multi-row INSERT draws sequence values nor the order of its RETURNING rows, so they can't be matched back.
+        SQLFragment nextIds = new SQLFragment("SELECT CAST(nextval(pg_get_serial_sequence(?, 'rowid')) AS INTEGER) FROM generate_series(1, ?)")
+                .addAll(schema.getTableInfoResponse().getSelectName(), responses.size());
+        List<Integer> rowIds = new SqlSelector(schema.getSchema(), nextIds).getArrayList(Integer.class);
+
+        SQLFragment sql = new SQLFragment("INSERT INTO ").append(schema.getTableInfoResponse().getSelectName());
+        sql.append(" (RowId, Data, ParticipantId, AppToken, SurveyVersion, ActivityId, Language, Status, Container, Created) VALUES ");
+        String separator = "";
+        for (int i = 0; i < responses.size(); i++)
+        {
+            SurveyResponse response = responses.get(i);
+            sql.append(separator).append("(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            sql.addAll(rowIds.get(i), response.getData(), response.getParticipantId(), response.getAppToken(), response.getSurveyVersion(),
+                    response.getActivityId(), response.getLanguage(), response.getStatus().getPkId(), response.getContainer(), created);
+            separator = ", ";
+        }
+        new SqlExecutor(schema.getSchema()).execute(sql);
+
+        for (int i = 0; i < responses.size(); i++)
+        {
+            responses.get(i).setRowId(rowIds.get(i));
+            responses.get(i).setCreated(created);
+        }
+    }
+
+    /**
+     * Find responses by the content of their data, without loading it. Payloads are parsed by the database, and a
+     * result key search uses the IX_Response_ResultKeys index. Archived responses, and any whose data can't be parsed,
+     * are not searched; {@link #countArchivedResponses} reports how many were left out.
+     * @param container hosting study to be queried
+     * @param startedOnOrAfter (optional) earliest response startTime (or start). Responses with a missing or
+     *                         unparseable value don't match.
+     * @param endedOnOrBefore (optional) latest response endTime (or end). Responses with a missing or unparseable
+     *                        value don't match.
+     * @param resultKey (optional) only responses with a top-level result with this key
+     * @return matching mobileappstudy.Response.RowIds, in ascending order
+     */
+    @NotNull
+    public List<Integer> findResponseIds(@NotNull Container container, @Nullable Date startedOnOrAfter, @Nullable Date endedOnOrBefore, @Nullable String resultKey)
+    {
         MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
-        TableInfo responseTable = schema.getTableInfoResponse();
-        return Table.insert(null, responseTable, resp);
+        SQLFragment sql = new SQLFragment("SELECT RowId FROM ").append(schema.getTableInfoResponse().getSelectName())
+                .append(" WHERE Container = ?").add(container)
+                .append(" AND Data IS NOT NULL");
+        if (startedOnOrAfter != null)
+            sql.append(" AND mobileappstudy.parseResponseTime(COALESCE(mobileappstudy.parseResponseData(Data)->>'startTime', mobileappstudy.parseResponseData(Data)->>'start')) >= ?").add(startedOnOrAfter);
+        if (endedOnOrBefore != null)
+            sql.append(" AND mobileappstudy.parseResponseTime(COALESCE(mobileappstudy.parseResponseData(Data)->>'endTime', mobileappstudy.parseResponseData(Data)->>'end')) <= ?").add(endedOnOrBefore);
+        if (resultKey != null)
+            sql.append(" AND mobileappstudy.parseResponseData(Data)->'results' @> jsonb_build_array(jsonb_build_object('key', CAST(? AS TEXT)))").add(resultKey);
+        sql.append(" ORDER BY RowId");
+
+        return new SqlSelector(schema.getSchema(), sql).getArrayList(Integer.class);
+    }
+
+    /**
+     * @return the number of the container's responses whose data has been archived, which {@link #findResponseIds}
+     * can't search
+     */
+    public long countArchivedResponses(@NotNull Container container)
+    {
+        SimpleFilter filter = SimpleFilter.createContainerFilter(container);
+        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponseArchive(), filter, null).getRowCount();
     }
 
     /**
@@ -786,10 +1202,8 @@ public class ResponseManager
     @Nullable
     MobileAppStudy getStudyFromAppToken(String appToken)
     {
-        Participant participant = getParticipantFromAppToken(appToken);
-        if (null == participant)
-            return null;
-        return getStudyFromParticipant(participant);
+        Pair<Participant, MobileAppStudy> cached = getAppTokenEntry(appToken);
+        return cached == null ? null : cached.second;
     }
 
     /**
@@ -799,6 +1213,16 @@ public class ResponseManager
      */
     @Nullable
     MobileAppStudy getStudyFromParticipant(@NotNull Participant participant)
+    {
+        Pair<Participant, MobileAppStudy> cached = participant.getAppToken() == null ? null : _appTokenCache.get(participant.getAppToken());
+        if (cached != null && Objects.equals(cached.first.getStudyId(), participant.getStudyId()))
+            return cached.second;
+
+        return selectStudyFromParticipant(participant);
+    }
+
+    @Nullable
+    private MobileAppStudy selectStudyFromParticipant(@NotNull Participant participant)
     {
         SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("rowId"), participant.getStudyId());
         return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoStudy(),  filter, null).getObject(MobileAppStudy.class);
@@ -806,60 +1230,71 @@ public class ResponseManager
 
     public int reprocessResponses(User user, @NotNull Set<Integer> listIds)
     {
-        SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("rowId"), listIds, CompareType.IN);
-        filter.addCondition(FieldKey.fromParts("Status"), ResponseStatus.ERROR.getPkId(), CompareType.EQUAL);
-        Collection<SurveyResponse> responses = new TableSelector(
-                MobileAppStudySchema.getInstance().getTableInfoResponse(), filter, null).getCollection(SurveyResponse.class);
+        List<Integer> reset = updateProcessingStatus(user, listIds, ResponseStatus.ERROR, ResponseStatus.PENDING, null);
+        reset.forEach(rowId -> _shredder.enqueue(rowId, user, ResponseShreddingQueue.Priority.BACKLOG));
 
-        responses.forEach(response ->
-        {
-            updateProcessingStatus(user, response.getRowId(), ResponseStatus.PENDING);
-            enqueueSurveyResponse(() -> shredSurveyResponse(response.getRowId(), user));
-        });
+        return reset.size();
+    }
 
-        return responses.size();
+    /**
+     * Move a response from one processing status to another
+     * @param user making the change (can be null)
+     * @param rowId of the response to update
+     * @param expectedStatus the status the response must currently have
+     * @param newStatus status to set
+     * @return true if the response was updated; false if it doesn't exist or its status was no longer expectedStatus,
+     * i.e., another thread (or server) got to it first
+     */
+    public boolean updateProcessingStatus(@Nullable User user, @NotNull Integer rowId, @NotNull ResponseStatus expectedStatus, @NotNull ResponseStatus newStatus)
+    {
+        return updateProcessingStatus(user, rowId, expectedStatus, newStatus, null);
     }
 
-    public void updateProcessingStatus(@Nullable User user, @NotNull Integer rowId, @NotNull ResponseStatus newStatus)
+    public boolean updateProcessingStatus(@Nullable User user, @NotNull Integer rowId, @NotNull ResponseStatus expectedStatus, @NotNull ResponseStatus newStatus, @Nullable String errorMessage)
     {
-        updateProcessingStatus(user, rowId, newStatus, null);
+        return !updateProcessingStatus(user, Collections.singleton(rowId), expectedStatus, newStatus, errorMessage).isEmpty();
     }
 
-    public void updateProcessingStatus(@Nullable User user, @NotNull Integer rowId, @NotNull ResponseStatus newStatus, @Nullable String errorMessage)
+    /**
+     * Compare-and-set the processing status of a set of responses with a single UPDATE. Only the status columns are
+     * touched; the response data is never read.
+     * @param user making the change (can be null)
+     * @param rowIds of the responses to update
+     * @param expectedStatus only responses currently in this status are updated
+     * @param newStatus status to set
+     * @param errorMessage (optional) error to record, any existing error message is cleared if null
+     * @return the rowIds that were updated
+     */
+    @NotNull
+    public List<Integer> updateProcessingStatus(@Nullable User user, @NotNull Collection<Integer> rowIds, @NotNull ResponseStatus expectedStatus, @NotNull ResponseStatus newStatus, @Nullable String errorMessage)
     {
-        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
-        TableInfo responseTable = schema.getTableInfoResponse();
-        SurveyResponse response = new TableSelector(responseTable).getObject(rowId, SurveyResponse.class);
+        if (rowIds.isEmpty())
+            return Collections.emptyList();
 
-        response.setStatus(newStatus);
-        if (errorMessage != null)
-            response.setErrorMessage(errorMessage.length() > ERROR_MESSAGE_MAX_SIZE ? errorMessage.substring(0, ERROR_MESSAGE_MAX_SIZE) + TRUNCATED_MESSAGE_SUFFIX : errorMessage);
-        else
-            response.setErrorMessage(null);
+        if (errorMessage != null && errorMessage.length() > ERROR_MESSAGE_MAX_SIZE)
+            errorMessage = errorMessage.substring(0, ERROR_MESSAGE_MAX_SIZE) + TRUNCATED_MESSAGE_SUFFIX;
+
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
         // we currently have only start and end statuses, so we can safely set the processed and processedBy
         // fields at this point.
-        response.setProcessed(new Date());
+        SQLFragment sql = new SQLFragment("UPDATE ").append(schema.getTableInfoResponse().getSelectName());
+        sql.append(" SET Status = ?, ErrorMessage = ?, Processed = ?").addAll(newStatus.getPkId(), errorMessage, new Date());
         if (user != null && !user.isGuest())
-            response.setProcessedBy(user);
+            sql.append(", ProcessedBy = ?").add(user.getUserId());
+        sql.append(" WHERE Status = ? AND RowId").add(expectedStatus.getPkId());
+        schema.getSqlDialect().appendInClauseSql(sql, rowIds);
+        sql.append(" RETURNING RowId");
 
-        try
-        {
-            Table.update(user, responseTable, response, response.getRowId());
-        }
-        catch (OptimisticConflictException e)
-        {
-            //Ignore the error, we already deleted the survey response so we don't need to perform the update
-        }
+        return new SqlSelector(schema.getSchema(), sql).getArrayList(Integer.class);
     }
 
     public Set<Integer> getNonErrorResponses(Set<Integer> listIds)
     {
         SimpleFilter filter = new SimpleFilter(FieldKey.fromParts("rowId"), listIds, CompareType.IN);
         filter.addCondition(FieldKey.fromParts("status"), ResponseStatus.ERROR.getPkId(), CompareType.NEQ);
-        Collection<SurveyResponse> responses = new TableSelector(
-                MobileAppStudySchema.getInstance().getTableInfoResponse(), filter, null).getCollection(SurveyResponse.class);
 
-        return responses.stream().map(SurveyResponse::getRowId).collect(Collectors.toSet());
+        return new HashSet<>(new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), Collections.singleton("RowId"), filter, null)
+                .getArrayList(Integer.class));
     }
 
     /**
@@ -881,17 +1316,25 @@ public class ResponseManager
 
         try (DbScope.Transaction transaction = scope.ensureTransaction())
         {
+            long phaseStart = System.nanoTime();
             Response response = Response.getResponseObject(surveyResponse.getData());
-            storeSurveyResult(response, surveyResponse.getActivityId(), surveyResponse.getParticipantId(), responseBlobId, response.getResults(), errors, surveyResponse.getContainer(), insertUser);
+            phaseStart = _metrics.record(ShredderMetrics.Phase.JsonParse, phaseStart);
+            ListRowBatch batch = new ListRowBatch(surveyResponse.getContainer(), insertUser);
+            List<SurveyResult> metadata = new ArrayList<>();
+            ListRowBatch.PendingRow surveyRow = addSurveyResult(response, surveyResponse.getActivityId(), surveyResponse.getParticipantId(), responseBlobId, response.getResults(), errors, batch, metadata, surveyResponse.getContainer(), insertUser);
             if (!errors.isEmpty())
                 throw new Exception("Problem storing data in list '" + surveyResponse.getActivityId() + "' in container '" + surveyResponse.getContainer().getName() + "'.\n" + StringUtils.join(errors, "\n"));
-            else
-                transaction.commit();
+
+            batch.flush();
+            phaseStart = _metrics.record(ShredderMetrics.Phase.ListInsert, phaseStart);
+            storeResponseMetadata(metadata, surveyRow.getKey(), surveyResponse.getContainer(), surveyResponse.getParticipantId());
+            _metrics.record(ShredderMetrics.Phase.MetadataInsert, phaseStart);
+            transaction.commit();
         }
     }
 
     /**
-     * Store a SurveyResult in a given list and then recursively store its multi-valued results in their respective lists
+     * Queue a SurveyResult for insert into a given list and then recursively queue its multi-valued results for their respective lists
      *
      * @param response the response whose results are being stored
      * @param listName name of the list to store data in
@@ -899,15 +1342,19 @@ public class ResponseManager
      * @param responseBlobId rowId to the mobileappstudy.response table
      * @param results the collection of results for this survey result
      * @param errors the collection of errors encountered while storing this survey result
+     * @param batch the rows queued for insert thus far
+     * @param metadata the results whose metadata is to be stored once the survey row has been inserted
      * @param container the container in which the list lives
-     * @param user the user who will store the data     @throws Exception if there are problems storing the data.
+     * @param user the user who will store the data
+     * @return the pending survey row, or null if there were errors
      */
-    private void storeSurveyResult(@NotNull Response response, @NotNull String listName, @NotNull Integer participantId, @NotNull Integer responseBlobId, @Nullable List<SurveyResult> results, @NotNull List<String> errors, @NotNull Container container, @NotNull User user) throws Exception
+    @Nullable
+    private ListRowBatch.PendingRow addSurveyResult(@NotNull Response response, @NotNull String listName, @NotNull Integer participantId, @NotNull Integer responseBlobId, @Nullable List<SurveyResult> results, @NotNull List<String> errors, @NotNull ListRowBatch batch, @NotNull List<SurveyResult> metadata, @NotNull Container container, @NotNull User user)
     {
         if (results == null)
         {
             errors.add("No results provided in response.");
-            return;
+            return null;
         }
         // initialize the data map with the survey result values
         Map<String, Object> data = new ArrayListMap<>();
@@ -915,24 +1362,24 @@ public class ResponseManager
         data.put("endTime", response.getEndTime());
         data.put("responseId", responseBlobId);
 
-        Map<String, Object> row = storeListResults(null, listName, results, data, errors, container, user, participantId);
-        if (!row.isEmpty())
+        ListRowBatch.PendingRow row = addListResults(listName, results, data, null, errors, batch, metadata, container, user, participantId);
+        if (row != null)
         {
-            Integer activityId = (Integer) row.get("Key");
-            Pair<String, Integer> rowKey = new Pair<>(listName + "Id", activityId);
+            Pair<String, ListRowBatch.PendingRow> rowKey = new Pair<>(listName + "Id", row);
             List<SurveyResult> multiValuedResults = getMultiValuedResults(listName, results);
-            storeMultiValuedResults(multiValuedResults, activityId, rowKey, errors, container, user, participantId);
+            addMultiValuedResults(multiValuedResults, rowKey, errors, batch, metadata, container, user, participantId);
         }
+        return row;
     }
 
     /**
      * Extract the subset of results that are single-valued and validate that these fields exist and are of the proper type in the given list
-     * @param list the table where the single-valued results are to be stored; used for validating column names and types
+     * @param list the plan for the list where the single-valued results are to be stored; used for validating column names and types
      * @param results the results to be filtered
      * @param errors a collection of validation errors
      * @return the filtered set of results
      */
-    private List<SurveyResult> getSingleValuedResults(@NotNull TableInfo list, @NotNull List<SurveyResult> results, @NotNull List<String> errors)
+    private List<SurveyResult> getSingleValuedResults(@NotNull ShredPlan list, @NotNull List<SurveyResult> results, @NotNull List<String> errors)
     {
         List<SurveyResult> singleValuedResults = new ArrayList<>();
         results.stream().filter(result -> result.getStepResultType().isSingleValued()).forEach(result ->
@@ -971,6 +1418,51 @@ public class ResponseManager
         return multiValuedResults;
     }
 
+    /**
+     * Gets the cached shred plan for a given list name in a given container, building it if necessary. Plans are
+     * shared by all submitters, so the list table is always resolved as the shredder's service user rather than as
+     * whoever happened to trigger the build; rows are still inserted as the submitting user.
+     * @param listName name of the list whose plan is to be returned
+     * @param container container for the list
+     * @return the plan
+     * @throws IllegalStateException if the list or table info cannot be found
+     */
+    private ShredPlan getShredPlan(@NotNull String listName, @NotNull Container container) throws IllegalStateException
+    {
+        String key = container.getId() + "/" + _shredPlanGenerations.getOrDefault(container.getId(), 0) + "/" + listName.toLowerCase();
+        ShredPlan plan = _shredPlans.get(key);
+        if (plan == null)
+        {
+            plan = new ShredPlan(getResultTable(listName, container, getShredderUser()));
+            _shredPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * @return the user shred plans are built with: a submitter-role LimitedUser wrapping the Guest user, so a
+     * cached plan never carries the permissions of a particular requesting user
+     */
+    private static User getShredderUser()
+    {
+        return new LimitedUser(UserManager.getGuestUser(), SubmitterRole.class);
+    }
+
+    /**
+     * Discard the cached shred plans for a container's lists. If called inside a transaction (e.g., while a survey
+     * design is being applied) the plans are discarded again once it commits, so a plan built from the old list
+     * design in the meantime isn't kept.
+     * @param container whose list designs changed
+     */
+    public void invalidateShredPlans(@NotNull Container container)
+    {
+        _shredPlanGenerations.merge(container.getId(), 1, Integer::sum);
+
+        DbScope scope = MobileAppStudySchema.getInstance().getSchema().getScope();
+        if (scope.isTransactionActive())
+            scope.getCurrentTransaction().addCommitTask(() -> _shredPlanGenerations.merge(container.getId(), 1, Integer::sum), DbScope.CommitTaskOption.POSTCOMMIT);
+    }
+
     /**
      * Gets a table for a given list name in a given container
      * @param listName name of the list whose table is to be returned
@@ -993,125 +1485,90 @@ public class ResponseManager
     }
 
     /**
-     * Determine if a column of the appropriate type is available in the given table
-     * @param table the table in question
+     * Determine if a column of the appropriate type is available in the given list
+     * @param list the plan for the list in question
      * @param columnName name of the column
      * @param resultType the type of the column we expect
-     *@param errors collection of validation errors accumulated thus far  @return true if the expected column with the expected type is found; false otherwise
+     * @param errors collection of validation errors accumulated thus far
+     * @return true if the expected column with the expected type is found and there are no other errors; false otherwise
      */
-    private boolean validateListColumn(@NotNull TableInfo table, @NotNull String columnName, SurveyStep.StepResultType resultType, @NotNull List<String> errors)
+    private boolean validateListColumn(@NotNull ShredPlan list, @NotNull String columnName, SurveyStep.StepResultType resultType, @NotNull List<String> errors)
     {
-        //TODO: this should be moved into the SurveyResult.ValueType using a lambda Function<T,R>
-
-        ColumnInfo column = table.getColumn(columnName);
-        if (column == null)
-        {
-            errors.add("Unable to find column '" + columnName + "' in list '" + table.getName() + "'");
-        }
-        else if ((resultType.getDefaultJdbcType() == JdbcType.TIMESTAMP && (column.getJdbcType() == JdbcType.TIMESTAMP || column.getJdbcType() == JdbcType.DATE))
-            || (resultType.getDefaultJdbcType() == JdbcType.INTEGER && (column.getJdbcType() == JdbcType.INTEGER || column.getJdbcType() == JdbcType.DOUBLE)))
-        {
-            // TODO this seems not quite right. We don't have any INTEGER fields, though perhaps we should.
-            //Some columns storage types require info not included in result so can't match here
-        }
-        else if (column.getJdbcType() != resultType.getDefaultJdbcType())
-        {
-            errors.add("Type '" + resultType.getResultTypeString() + "' (" + resultType.getDefaultJdbcType() + ") of result '" + columnName + "' does not match expected type (" + column.getJdbcType() + ")");
-        }
+        String error = list.getColumnError(columnName, resultType);
+        if (error != null)
+            errors.add(error);
 
         return errors.isEmpty();
     }
 
     /**
-     * Inserts a row for the given list table to add the data provided
-     * @param table the list table in which data is to be stored
-     * @param data the collection of data elements for the new row
-     * @param container the container in which the list (table) lives
-     * @param user the user inserting data into the list
-     * @return the newly created row
-     * @throws Exception if the table has no update service or there is any other problem inserting the new row
-     */
-    private Map<String, Object> storeListData(@NotNull TableInfo table, @NotNull Map<String, Object> data, @NotNull Container container, @Nullable User user) throws Exception
-    {
-        // Add an entry to the survey list and get the id.
-        BatchValidationException exception = new BatchValidationException();
-
-        if (table.getUpdateService() == null)
-            throw new IllegalStateException("Unable to get update service for table " + table.getName());
-        List<Map<String, Object>> rows = table.getUpdateService().insertRows(user, container, Collections.singletonList(data), exception, null, null);
-        if (exception.hasErrors())
-            throw exception;
-        else
-            return rows.get(0);
-    }
-
-    /**
-     * Stores a set of SurveyResult objects in a given list. For each given SurveyResult that is single-valued, store it
+     * Queues a set of SurveyResult objects for a given list. For each given SurveyResult that is single-valued, store it
      * in the column with the corresponding name.
      *
-     * @param activityId identifier of the survey
      * @param listName name of the list in which the responses should be stored
      * @param results the superset of results to be stored.  This may contain multi-valued results as well, but these
      *                will not be handled in this method
-     * @param data contains the initial set of data to be stored in the row (primarily the parent key field).
+     * @param data contains the initial set of data to be stored in the row
+     * @param parentKey (optional) name of the parent key field and the parent row it refers to
      * @param errors the set of errors accumulated thus far, which will be appended with errors encountered for storing these results
+     * @param batch the rows queued for insert thus far
+     * @param metadata the results whose metadata is to be stored once the survey row has been inserted
      * @param container the container in which the list lives
      * @param user the user to do the insert
      * @param participantId of respondent
-     * @return the newly created list row
-     * @throws Exception if there is a problem finding or updating the appropriate lists
+     * @return the pending list row, or null if there were errors
      */
-    private Map<String, Object> storeListResults(@Nullable Integer activityId, @NotNull String listName, @NotNull List<SurveyResult> results, @NotNull Map<String, Object> data, @NotNull List<String> errors, @NotNull Container container, @NotNull User user, @NotNull Integer participantId) throws Exception
+    @Nullable
+    private ListRowBatch.PendingRow addListResults(@NotNull String listName, @NotNull List<SurveyResult> results, @NotNull Map<String, Object> data, @Nullable Pair<String, ListRowBatch.PendingRow> parentKey, @NotNull List<String> errors, @NotNull ListRowBatch batch, @NotNull List<SurveyResult> metadata, @NotNull Container container, @NotNull User user, @NotNull Integer participantId)
     {
-        TableInfo surveyTable = getResultTable(listName, container, user);
+        ShredPlan surveyTable = getShredPlan(listName, container);
         if (surveyTable.getUpdateService() == null)
         {
             errors.add("No update service available for the given survey table: " + listName);
-            return Collections.emptyMap();
+            return null;
         }
 
         // find all the single-value results, check if they are in the list, check the type, and add them to the data map if everything is good
         List<SurveyResult> singleValuedResults = getSingleValuedResults(surveyTable, results, errors);
         if (!errors.isEmpty())
-            return Collections.emptyMap();
+            return null;
 
         for (SurveyResult result: singleValuedResults)
             data.put(result.getKey(), result.getParsedValue());
 
         data.put("participantId", participantId);
-        Map<String, Object> row = storeListData(surveyTable, data, container, user);
-        if (activityId == null)
-            activityId = (Integer) row.get("Key");
 
-        // Add a resultMetadata row for each of the individual rows using the given activityId
-        storeResponseMetadata(singleValuedResults, activityId, container, user, participantId);
+        // Add a resultMetadata row for each of the individual rows
+        metadata.addAll(singleValuedResults);
 
-        return row;
+        return parentKey == null ?
+                batch.addRow(surveyTable, data, null, null) :
+                batch.addRow(surveyTable, data, parentKey.getValue(), parentKey.getKey());
     }
 
     /**
-     * Recursively stores a set of multi-valued results
+     * Recursively queues a set of multi-valued results
      * @param results the set of multi-valued results to be stored
-     * @param activityId identifier for the survey being processed
      * @param parentKey the key for the list that these multi-valued results are associated with
      * @param errors the collection of validation errors encountered thus far
+     * @param batch the rows queued for insert thus far
+     * @param metadata the results whose metadata is to be stored once the survey row has been inserted
      * @param container container for the lists
      * @param user user to do the inserts
      * @param participantId of respondent
-     * @throws Exception if there is a problem finding or updating the appropriate lists
      */
-    private void storeMultiValuedResults(@NotNull List<SurveyResult> results, @NotNull Integer activityId, @NotNull Pair<String, Integer> parentKey, @NotNull List<String> errors, @NotNull Container container, @NotNull User user, @NotNull Integer participantId) throws Exception
+    private void addMultiValuedResults(@NotNull List<SurveyResult> results, @NotNull Pair<String, ListRowBatch.PendingRow> parentKey, @NotNull List<String> errors, @NotNull ListRowBatch batch, @NotNull List<SurveyResult> metadata, @NotNull Container container, @NotNull User user, @NotNull Integer participantId)
     {
         for (SurveyResult result : results)
         {
             if (result.getStepResultType() == SurveyStep.StepResultType.TextChoice)
             {
-                storeResultChoices(result, activityId, parentKey, errors, container, user, participantId);
+                addResultChoices(result, parentKey, errors, batch, metadata, container, user, participantId);
             }
             else // result is of type GROUPED_RESULT
             {
                 if (result.getSkipped())
-                    storeResponseMetadata(Collections.singletonList(result), activityId, container, user, participantId);
+                    metadata.add(result);
                 else
                 {
                     // two scenarios, groupedResult is an array of SurveyResult objects or is an array of an array of SurveyResult objects
@@ -1129,18 +1586,16 @@ public class ResponseManager
                         }
                     }
 
-                    // store the data for each of the group result sets
+                    // queue the data for each of the group result sets
                     for (List<SurveyResult> groupResults : groupedResultList)
                     {
                         String listName = result.getListName();
-                        Map<String, Object> data = new ArrayListMap<>();
-                        data.put(parentKey.getKey(), parentKey.getValue());
-                        Map<String, Object> row = storeListResults(activityId, listName, groupResults, data, errors, container, user, participantId);
-                        if (!row.isEmpty())
+                        ListRowBatch.PendingRow row = addListResults(listName, groupResults, new ArrayListMap<>(), parentKey, errors, batch, metadata, container, user, participantId);
+                        if (row != null)
                         {
-                            Pair<String, Integer> rowKey = new Pair<>(listName + "Id", (Integer) row.get("Key"));
+                            Pair<String, ListRowBatch.PendingRow> rowKey = new Pair<>(listName + "Id", row);
                             List<SurveyResult> multiValuedResults = getMultiValuedResults(listName, groupResults);
-                            storeMultiValuedResults(multiValuedResults, activityId, rowKey, errors, container, user, participantId);
+                            addMultiValuedResults(multiValuedResults, rowKey, errors, batch, metadata, container, user, participantId);
                         }
                     }
                 }
@@ -1149,23 +1604,23 @@ public class ResponseManager
     }
 
     /**
-     * Stores a set of values for a choice response
+     * Queues a set of values for a choice response
      * @param result the result whose values are being stored
-     * @param activityId identifier for the survey being processed
      * @param parentKey the key for the list to which the choice will be associated
      * @param errors the set of validation errors encountered thus far
+     * @param batch the rows queued for insert thus far
+     * @param metadata the results whose metadata is to be stored once the survey row has been inserted
      * @param container the container for the lists
      * @param user user to do the inserts
      * @param participantId of respondent
-     * @throws Exception if there is a problem finding or updating the appropriate lists
      */
-    private void storeResultChoices(@NotNull SurveyResult result, @NotNull Integer activityId, @NotNull Pair<String, Integer> parentKey, @NotNull List<String> errors, @NotNull Container container, @NotNull User user, @NotNull Integer participantId) throws Exception
+    private void addResultChoices(@NotNull SurveyResult result, @NotNull Pair<String, ListRowBatch.PendingRow> parentKey, @NotNull List<String> errors, @NotNull ListRowBatch batch, @NotNull List<SurveyResult> metadata, @NotNull Container container, @NotNull User user, @NotNull Integer participantId)
     {
         if (result.getSkipped()) // store only metadata if the response was skipped
-            storeResponseMetadata(Collections.singletonList(result), activityId, container, user, participantId);
+            metadata.add(result);
         else
         {
-            TableInfo table = getResultTable(result.getListName(), container, user);
+            ShredPlan table = getShredPlan(result.getListName(), container);
             validateListColumn(table, result.getKey(), SurveyStep.StepResultType.Text, errors);
 
             if (errors.isEmpty())
@@ -1175,41 +1630,57 @@ public class ResponseManager
                     for (TextChoiceResult value : (List<TextChoiceResult>) result.getParsedValue())
                     {
                         Map<String, Object> data = new ArrayListMap<>();
-                        data.put(parentKey.getKey(), parentKey.getValue());
                         data.put("participantId", participantId);
                         data.put(result.getKey(), value.getValue());
                         if (StringUtils.isNotBlank(value.getOtherText()))
                             data.put(getOtherOptionKey(result.getKey()), value.getOtherText());
 
-                        storeListData(table, data, container, user);
+                        batch.addRow(table, data, parentKey.getValue(), parentKey.getKey());
                     }
                 }
 
-                storeResponseMetadata(Collections.singletonList(result), activityId, container, user, participantId);
+                metadata.add(result);
             }
         }
     }
 
     /**
-     * Stores the response metadata for the given results
+     * Stores the response metadata for the given results. All rows are written with multi-row inserts rather than
+     * one Table.insert per result, since surveys with many questions produce a metadata row per question.
      * @param results the results whose metadata is to be stored
      * @param activityId the identifier of the survey whose responses are being stored
      * @param container the container in which the lists live
-     * @param user the user to be used for inserting the data
      * @param participantId of respondent
      */
-    private void storeResponseMetadata(@NotNull List<SurveyResult> results, @NotNull Integer activityId, @NotNull Container container, @NotNull User user, @NotNull Integer participantId)
+    private void storeResponseMetadata(@NotNull List<SurveyResult> results, @NotNull Integer activityId, @NotNull Container container, @NotNull Integer participantId)
     {
-        for (SurveyResult result : results)
+        if (results.isEmpty())
+            return;
+
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        TableInfo responseMetadataTable = schema.getTableInfoResponseMetadata();
+        SqlExecutor executor = new SqlExecutor(schema.getSchema());
+        Date created = new Date();
+
+        for (int start = 0; start < results.size(); start += METADATA_INSERT_BATCH_SIZE)
         {
-            MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
-            TableInfo responseMetadataTable = schema.getTableInfoResponseMetadata();
-            result.setActivityId(activityId);
-            result.setContainer(container);
-            result.setParticipantId(participantId);
-            result.setFieldName(result.getKey());
+            SQLFragment sql = new SQLFragment("INSERT INTO ").append(responseMetadataTable.getSelectName());
+            sql.append(" (Container, ListName, ActivityId, FieldName, StartTime, EndTime, Skipped, Created, ParticipantId) VALUES ");
+
+            String separator = "";
+            for (SurveyResult result : results.subList(start, Math.min(start + METADATA_INSERT_BATCH_SIZE, results.size())))
+            {
+                result.setActivityId(activityId);
+                result.setContainer(container);
+                result.setParticipantId(participantId);
+                result.setFieldName(result.getKey());
+
+                sql.append(separator).append("(?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                sql.addAll(container, result.getListName(), activityId, result.getFieldName(), result.getStartTime(), result.getEndTime(), result.getSkipped(), created, participantId);
+                separator = ", ";
+            }
 
-            Table.insert(user, responseMetadataTable, result);
+            executor.execute(sql);
         }
     }
 
@@ -1220,8 +1691,9 @@ public class ResponseManager
      */
     public void withdrawFromStudy(String participantId, boolean delete) throws Exception
     {
-        //Get participant
-        Participant participant = this.getParticipantFromAppToken(participantId);
+        //Get participant, bypassing the cache since the record is modified below
+        _appTokenCache.remove(participantId);
+        Participant participant = this.selectParticipantFromAppToken(participantId);
 
         //sanity check, Should already be checked during initial validation
         if (participant == null)
@@ -1247,6 +1719,8 @@ public class ResponseManager
             if (delete)
                 deleteParticipantData(participant);
 
+            // Drop anything cached by a concurrent request before the appToken was cleared
+            transaction.addCommitTask(() -> _appTokenCache.remove(participantId), DbScope.CommitTaskOption.POSTCOMMIT);
             transaction.commit();
         }
         catch (Exception e)
@@ -1278,6 +1752,8 @@ public class ResponseManager
         MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
 
         deleteParticipantDataFromTable(schema::getTableInfoResponseMetadata, participant.getRowId());
+        deleteParticipantResponseDataFromTable(schema::getTableInfoResponseArchive, participant.getRowId());
+        deleteParticipantResponseDataFromTable(schema::getTableInfoForwardingAttempt, participant.getRowId());
         deleteParticipantDataFromTable(schema::getTableInfoResponse, participant.getRowId());
         deleteParticipantDataFromTable(schema::getTableInfoEnrollmentToken, participant.getRowId());
     }
@@ -1294,6 +1770,21 @@ public class ResponseManager
         Table.delete(tableDelegate.get(), filter);
     }
 
+    /**
+     * Delete rows keyed by ResponseId for a participant's responses. These tables reference the Response table, so
+     * they must be cleared before the participant's responses are deleted.
+     * @param tableDelegate Supplier method to get TableInfo from
+     * @param participantId to target
+     */
+    private void deleteParticipantResponseDataFromTable(Supplier<TableInfo> tableDelegate, Integer participantId)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("DELETE FROM ").append(tableDelegate.get().getSelectName())
+                .append(" WHERE ResponseId IN (SELECT RowId FROM ").append(schema.getTableInfoResponse().getSelectName())
+                .append(" WHERE ParticipantId = ?)").add(participantId);
+        new SqlExecutor(schema.getSchema()).execute(sql);
+    }
+
     /**
      * Delete participant data from all lists
      * @param participant to target for deletion
@@ -1455,24 +1946,14 @@ public class ResponseManager
         return optionFieldKey + OTHER_OPTION_TITLE;
     }
 
-    private void enqueueForwardingJob(final User user,final Container container)
-    {
-        SurveyResponseForwardingJob forwarder = new SurveyResponseForwardingJob();
-
-        try
-        {
-            forwarder.call(user, container);
-        }
-        catch (Exception e)
-        {
-            forwarder.setUnsuccessful(container);
-        }
-    }
-
-    public void setForwardingJobUnsucessful(Container c)
+    /**
+     * Pause forwarding for a container after a failure, see {@link ForwardingCircuitBreaker}
+     * @param c container whose forwarding failed
+     * @param reason description of the failure, shown on the forwarding settings page
+     */
+    public void setForwardingJobUnsucessful(Container c, String reason)
     {
-        SurveyResponseForwardingJob forwarder = new SurveyResponseForwardingJob();
-        forwarder.setUnsuccessful(c);
+        ForwardingCircuitBreaker.get().recordFailure(c, reason);
     }
 
     public Map<String, String> getForwardingProperties(Container container)
@@ -1485,6 +1966,9 @@ public class ResponseManager
         logger.info( String.format("Updating forwarder configuration for container: %1$s", container.getName()));
         form.getForwardingType().setForwardingProperties(container, form);
 
+        // Give the new configuration a fresh start
+        ForwardingCircuitBreaker.get().reset(container);
+        OAuthForwarder.clearAuthToken(container);
         ForwardingScheduler.get().enableContainer(container, form.getForwardingType() != ForwardingType.Disabled);
     }
 
@@ -1512,13 +1996,203 @@ public class ResponseManager
         return new TableSelector(column, filter, null).getObject(String.class);
     }
 
-    public boolean hasResponsesToForward(@NotNull Container container)
+    /**
+     * Get the enrollment tokens of several participants in one query
+     * @param container hosting study
+     * @param participantIds mobileappstudy.Participant.RowIds
+     * @return map of participant RowId to enrollment token, without entries for participants who enrolled without one
+     */
+    @NotNull
+    public Map<Integer, String> getEnrollmentTokens(@NotNull Container container, @NotNull Collection<Integer> participantIds)
     {
-        FieldKey fkey = FieldKey.fromParts("Status");
+        Map<Integer, String> tokens = new HashMap<>();
+        if (participantIds.isEmpty())
+            return tokens;
+
         SimpleFilter filter = SimpleFilter.createContainerFilter(container);
-        filter.addCondition(fkey, ResponseStatus.PROCESSED.getPkId());
-        return new TableSelector(MobileAppStudySchema.getInstance().getTableInfoResponse(), filter, null)
-                .getRowCount() > 0;
+        filter.addCondition(FieldKey.fromParts("ParticipantId"), participantIds, CompareType.IN);
+        new TableSelector(MobileAppStudySchema.getInstance().getTableInfoEnrollmentToken(), Set.of("ParticipantId", "Token"), filter, null)
+                .forEach(rs -> tokens.put(rs.getInt("ParticipantId"), rs.getString("Token")));
+        return tokens;
+    }
+
+    /**
+     * Check if a container has any processed responses that are due to be forwarded now
+     */
+    public boolean hasResponsesToForward(@NotNull Container container)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT 1\n");
+        appendForwardableResponses(sql, container);
+        return new SqlSelector(schema.getSchema(), sql).exists();
+    }
+
+    /**
+     * Get one page, in RowId order, of the processed responses in a container that are due to be forwarded: those
+     * that haven't been attempted yet, and those whose scheduled retry time has come and that haven't been parked.
+     * Responses are returned without their data, as for {@link ResponseProjection#HEADER}.
+     * @param container hosting study
+     * @param preserveParticipantOrder if true, skip responses from participants who have an earlier response that is
+     *                                 waiting for a retry
+     * @param afterRowId only return responses with a greater RowId
+     * @param maxRows page size
+     * @return List of SurveyResponse objects, shorter than maxRows if this is the last page
+     */
+    @NotNull
+    public List<SurveyResponse> getResponsesToForward(@NotNull Container container, boolean preserveParticipantOrder, int afterRowId, int maxRows)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT ")
+            .append(ResponseProjection.HEADER._columns.stream().sorted().map(column -> "r." + column).collect(Collectors.joining(", ")))
+            .append("\n");
+        appendForwardableResponses(sql, container);
+        sql.append("    AND r.RowId > ?\n").add(afterRowId);
+        if (preserveParticipantOrder)
+        {
+            sql.append("    AND NOT EXISTS (SELECT 1 FROM ")
+                    .append(schema.getTableInfoResponse(), "r2").append(" JOIN ")
+                    .append(schema.getTableInfoForwardingAttempt(), "fa2").append(" ON fa2.ResponseId = r2.RowId\n")
+                .append("        WHERE r2.ParticipantId = r.ParticipantId AND r2.RowId < r.RowId AND r2.Status = ?").add(ResponseStatus.PROCESSED.getPkId())
+                .append(" AND NOT fa2.Parked AND fa2.NextAttempt > CURRENT_TIMESTAMP)\n");
+        }
+        sql.append("  ORDER BY r.RowId");
+
+        return new SqlSelector(schema.getSchema(), sql).setMaxRows(maxRows).getArrayList(SurveyResponse.class);
+    }
+
+    private void appendForwardableResponses(SQLFragment sql, Container container)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        sql.append("  FROM ")
+                .append(schema.getTableInfoResponse(), "r").append(" LEFT JOIN ")
+                .append(schema.getTableInfoForwardingAttempt(), "fa").append(" ON fa.ResponseId = r.RowId\n")
+            .append("  WHERE r.Container = ?\n").add(container)
+            .append("    AND r.Status = ?\n").add(ResponseStatus.PROCESSED.getPkId())
+            .append("    AND (fa.ResponseId IS NULL OR (NOT fa.Parked AND fa.NextAttempt <= CURRENT_TIMESTAMP))\n");
+    }
+
+    /**
+     * Mark responses as forwarded and clear their forwarding attempts, in one transaction
+     * @param user making the change
+     * @param rowIds of the responses that the endpoint accepted
+     * @return the rowIds that were still PROCESSED, and so were updated
+     */
+    @NotNull
+    public List<Integer> markForwarded(@Nullable User user, @NotNull Collection<Integer> rowIds)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        try (DbScope.Transaction transaction = schema.getSchema().getScope().ensureTransaction())
+        {
+            List<Integer> updated = updateProcessingStatus(user, rowIds, ResponseStatus.PROCESSED, ResponseStatus.FORWARDED, null);
+
+            SQLFragment sql = new SQLFragment("DELETE FROM ").append(schema.getTableInfoForwardingAttempt().getSelectName()).append(" WHERE ResponseId");
+            schema.getSqlDialect().appendInClauseSql(sql, rowIds);
+            new SqlExecutor(schema.getSchema()).execute(sql);
+
+            transaction.commit();
+            return updated;
+        }
+    }
+
+    /**
+     * Record a failed attempt to forward responses and schedule their next attempt, backing off exponentially with
+     * jitter. Responses that have failed the configured maximum number of times are parked, i.e., not retried again
+     * until an admin asks for it.
+     * @param rowIds of the responses that couldn't be forwarded
+     * @param statusCode the endpoint's HTTP status code, or null if no reply was received
+     * @param error description of the failure
+     * @return the rowIds of responses that were parked by this failure
+     */
+    @NotNull
+    public List<Integer> recordForwardingFailure(@NotNull Collection<Integer> rowIds, @Nullable Integer statusCode, @Nullable String error)
+    {
+        if (rowIds.isEmpty())
+            return Collections.emptyList();
+
+        if (error != null && error.length() > ERROR_MESSAGE_MAX_SIZE)
+            error = error.substring(0, ERROR_MESSAGE_MAX_SIZE) + TRUNCATED_MESSAGE_SUFFIX;
+        int maxAttempts = Math.max(1, ResponseModule.getIntModuleProperty(ResponseModule.FORWARDING_MAX_ATTEMPTS_PROPERTY, ResponseModule.DEFAULT_FORWARDING_MAX_ATTEMPTS));
+
+        // Retry after a minute, doubling for each further failure up to six hours; half of each delay is random
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("WITH attempt AS (\n")
+            .append("  INSERT INTO ").append(schema.getTableInfoForwardingAttempt().getSelectName())
+                .append(" AS fa (ResponseId, Container, Attempts, LastStatusCode, LastError, FirstAttempt, LastAttempt, NextAttempt, Parked)\n")
+            .append("  SELECT RowId, Container, 1, ?, ?, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP, CURRENT_TIMESTAMP + INTERVAL '1 minute' * (0.5 + random() / 2), ?\n")
+                .addAll(statusCode, error, maxAttempts <= 1)
+            .append("  FROM ").append(schema.getTableInfoResponse().getSelectName()).append(" WHERE RowId");
+        schema.getSqlDialect().appendInClauseSql(sql, rowIds);
+        sql.append("\n  ON CONFLICT (ResponseId) DO UPDATE SET\n")
+            .append("    Attempts = fa.Attempts + 1,\n")
+            .append("    LastStatusCode = EXCLUDED.LastStatusCode,\n")
+            .append("    LastError = EXCLUDED.LastError,\n")
+            .append("    LastAttempt = EXCLUDED.LastAttempt,\n")
+            .append("    NextAttempt = EXCLUDED.LastAttempt + LEAST(INTERVAL '6 hours', INTERVAL '1 minute' * power(2, LEAST(fa.Attempts, 20))) * (0.5 + random() / 2),\n")
+            .append("    Parked = fa.Attempts + 1 >= ?\n").add(maxAttempts)
+            .append("  RETURNING ResponseId, Parked\n")
+            .append(")\n")
+            .append("SELECT ResponseId FROM attempt WHERE Parked");
+
+        return new SqlSelector(schema.getSchema(), sql).getArrayList(Integer.class);
+    }
+
+    /**
+     * @return when the next scheduled forwarding retry for the container is due, or null if none are scheduled
+     */
+    @Nullable
+    public Date getNextForwardingAttempt(@NotNull Container container)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT MIN(fa.NextAttempt) FROM ")
+                .append(schema.getTableInfoForwardingAttempt(), "fa").append(" JOIN ")
+                .append(schema.getTableInfoResponse(), "r").append(" ON r.RowId = fa.ResponseId")
+            .append(" WHERE fa.Container = ? AND NOT fa.Parked AND r.Status = ?").addAll(container, ResponseStatus.PROCESSED.getPkId());
+        return new SqlSelector(schema.getSchema(), sql).getObject(Date.class);
+    }
+
+    /**
+     * Summarize a container's forwarding backlog: how many processed responses are waiting to be forwarded, how long
+     * the oldest has waited, and how many are waiting for a retry or have been parked.
+     */
+    @NotNull
+    public Map<String, Object> getForwardingStatus(@NotNull Container container)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("SELECT COUNT(*) AS ToForward, MIN(r.Processed) AS OldestProcessed,\n")
+            .append("  COUNT(fa.ResponseId) FILTER (WHERE NOT fa.Parked) AS Retrying,\n")
+            .append("  COUNT(fa.ResponseId) FILTER (WHERE fa.Parked) AS Parked,\n")
+            .append("  MIN(fa.NextAttempt) FILTER (WHERE NOT fa.Parked) AS NextAttempt\n")
+            .append("  FROM ")
+                .append(schema.getTableInfoResponse(), "r").append(" LEFT JOIN ")
+                .append(schema.getTableInfoForwardingAttempt(), "fa").append(" ON fa.ResponseId = r.RowId\n")
+            .append("  WHERE r.Container = ? AND r.Status = ?").addAll(container, ResponseStatus.PROCESSED.getPkId());
+
+        Map<String, Object> status = new LinkedHashMap<>();
+        new SqlSelector(schema.getSchema(), sql).forEach(rs -> {
+            Date oldest = rs.getTimestamp("OldestProcessed");
+            status.put("toForward", rs.getLong("ToForward"));
+            status.put("retrying", rs.getLong("Retrying"));
+            status.put("parked", rs.getLong("Parked"));
+            status.put("oldestProcessed", oldest);
+            status.put("lagSeconds", oldest == null ? 0 : TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - oldest.getTime()));
+            status.put("nextAttempt", rs.getTimestamp("NextAttempt"));
+        });
+        return status;
+    }
+
+    /**
+     * Un-park a container's parked responses, so that they are forwarded again
+     * @return number of responses un-parked
+     */
+    public int retryParkedResponses(@NotNull Container container)
+    {
+        MobileAppStudySchema schema = MobileAppStudySchema.getInstance();
+        SQLFragment sql = new SQLFragment("UPDATE ").append(schema.getTableInfoForwardingAttempt().getSelectName())
+            .append(" SET Parked = FALSE, Attempts = 0, NextAttempt = CURRENT_TIMESTAMP WHERE Container = ? AND Parked").add(container);
+        int count = new SqlExecutor(schema.getSchema()).execute(sql);
+        if (count > 0)
+            ForwardingScheduler.get().requestForwarding(container);
+        return count;
     }
 
     public boolean isForwardingEnabled(Container container)
@@ -1528,6 +2202,7 @@ public class ResponseManager
 
     public void updateStudyDesign(Container container, User user) throws Exception
     {
+        _knownDesigns.invalidate(container);
         updateDesign(getStudy(container), null, user);
     }
 
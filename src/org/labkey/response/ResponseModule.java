@@ -16,17 +16,22 @@
 
 package org.labkey.response;
 
+import org.apache.commons.lang3.math.NumberUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.SqlSelector;
 import org.labkey.api.module.DefaultModule;
+import org.labkey.api.module.Module;
 import org.labkey.api.module.ModuleContext;
+import org.labkey.api.module.ModuleLoader;
+import org.labkey.api.module.ModuleProperty;
 import org.labkey.api.security.permissions.SiteAdminPermission;
 import org.labkey.api.security.roles.RoleManager;
 import org.labkey.api.settings.AdminConsole;
 import org.labkey.api.usageMetrics.UsageMetricsService;
+import org.labkey.api.util.SystemMaintenance;
 import org.labkey.api.view.ActionURL;
 import org.labkey.api.view.FolderManagement;
 import org.labkey.api.view.SimpleWebPartFactory;
@@ -49,6 +54,23 @@ public class ResponseModule extends DefaultModule
 {
     public static final String NAME = "Response";
 
+    public static final String SHREDDER_THREAD_COUNT_PROPERTY = "ShredderThreadCount";
+    public static final String SHREDDER_QUEUE_CAPACITY_PROPERTY = "ShredderQueueCapacity";
+    public static final int DEFAULT_SHREDDER_THREAD_COUNT = 10;
+    public static final int DEFAULT_SHREDDER_QUEUE_CAPACITY = 1000;
+    public static final String GROUP_COMMIT_INTERVAL_PROPERTY = "ResponseGroupCommitInterval";
+    public static final int DEFAULT_GROUP_COMMIT_INTERVAL = 0;
+    public static final String ARCHIVE_AFTER_DAYS_PROPERTY = "ResponseArchiveAfterDays";
+    public static final int DEFAULT_ARCHIVE_AFTER_DAYS = 0;
+    public static final String FORWARDING_MAX_LATENCY_PROPERTY = "ResponseForwardingMaxLatency";
+    public static final int DEFAULT_FORWARDING_MAX_LATENCY = 30;
+    public static final String FORWARDING_CONNECT_TIMEOUT_PROPERTY = "ResponseForwardingConnectTimeout";
+    public static final int DEFAULT_FORWARDING_CONNECT_TIMEOUT = 10;
+    public static final String FORWARDING_REQUEST_TIMEOUT_PROPERTY = "ResponseForwardingRequestTimeout";
+    public static final int DEFAULT_FORWARDING_REQUEST_TIMEOUT = 60;
+    public static final String FORWARDING_MAX_ATTEMPTS_PROPERTY = "ResponseForwardingMaxAttempts";
+    public static final int DEFAULT_FORWARDING_MAX_ATTEMPTS = 10;
+
     /**
      * Predicate that can be used to check if a container has this module active
      */
@@ -63,7 +85,7 @@ public class ResponseModule extends DefaultModule
     @Override
     public @Nullable Double getSchemaVersion()
     {
-        return 24.000;
+        return 24.004;
     }
 
     @Override
@@ -90,6 +112,48 @@ public class ResponseModule extends DefaultModule
     protected void init()
     {
         addController(ResponseController.NAME, ResponseController.class, "mobileappstudy");
+
+        addServerModuleProperty(SHREDDER_THREAD_COUNT_PROPERTY, DEFAULT_SHREDDER_THREAD_COUNT,
+                "Number of threads used to process submitted survey responses. Changes take effect after a server restart.");
+        addServerModuleProperty(SHREDDER_QUEUE_CAPACITY_PROPERTY, DEFAULT_SHREDDER_QUEUE_CAPACITY,
+                "Maximum number of submitted survey responses waiting to be processed. Responses beyond this limit stay pending and are processed as the queue drains. Changes take effect after a server restart.");
+        addServerModuleProperty(GROUP_COMMIT_INTERVAL_PROPERTY, DEFAULT_GROUP_COMMIT_INTERVAL,
+                "Milliseconds to gather concurrent survey submissions into a single database insert. 0 inserts each submission individually. Changes take effect after a server restart.");
+        addServerModuleProperty(ARCHIVE_AFTER_DAYS_PROPERTY, DEFAULT_ARCHIVE_AFTER_DAYS,
+                "Age in days after which the data of processed and forwarded survey responses is compressed and moved to the response archive by nightly system maintenance. 0 disables archiving.");
+        addServerModuleProperty(FORWARDING_MAX_LATENCY_PROPERTY, DEFAULT_FORWARDING_MAX_LATENCY,
+                "Maximum seconds between a survey response being processed and its study's forwarding starting. Responses processed within this window are forwarded together.");
+        addServerModuleProperty(FORWARDING_CONNECT_TIMEOUT_PROPERTY, DEFAULT_FORWARDING_CONNECT_TIMEOUT,
+                "Seconds to wait for a connection to a response forwarding endpoint.");
+        addServerModuleProperty(FORWARDING_REQUEST_TIMEOUT_PROPERTY, DEFAULT_FORWARDING_REQUEST_TIMEOUT,
+                "Seconds to wait for a response forwarding endpoint, or OAuth token endpoint, to reply to a request.");
+        addServerModuleProperty(FORWARDING_MAX_ATTEMPTS_PROPERTY, DEFAULT_FORWARDING_MAX_ATTEMPTS,
+                "Number of failed attempts to forward a survey response after which it is parked and no longer retried automatically.");
+    }
+
+    private void addServerModuleProperty(String name, Object defaultValue, String description)
+    {
+        ModuleProperty property = new ModuleProperty(this, name);
+        property.setDescription(description);
+        property.setDefaultValue(String.valueOf(defaultValue));
+        property.setCanSetPerContainer(false);
+        addModuleProperty(property);
+    }
+
+    /**
+     * Read a site-wide integer module property
+     * @param name of the property
+     * @param defaultValue returned if the property is unset or not a number
+     * @return the configured value
+     */
+    public static int getIntModuleProperty(String name, int defaultValue)
+    {
+        Module module = ModuleLoader.getInstance().getModule(NAME);
+        ModuleProperty property = module == null ? null : module.getModuleProperties().get(name);
+        if (property == null)
+            return defaultValue;
+
+        return NumberUtils.toInt(property.getEffectiveValue(ContainerManager.getRoot()), defaultValue);
     }
 
     @Override
@@ -108,6 +172,7 @@ public class ResponseModule extends DefaultModule
         ResponseManager.get().doStartup();
 
         RoleManager.registerRole(new MyStudiesCoordinator());
+        SystemMaintenance.addTask(new ResponseArchiver());
 
         UsageMetricsService svc = UsageMetricsService.get();
         if (null != svc)
@@ -115,6 +180,8 @@ public class ResponseModule extends DefaultModule
             svc.registerUsageMetrics(NAME, () -> {
                 Map<String, Object> metric = new HashMap<>();
                 metric.put("foldersWithStudyIdConfiguredCount", new SqlSelector(MobileAppStudyQuerySchema.getSchema(), "SELECT COUNT(*) FROM MOBILEAPPSTUDY.STUDY").getObject(Long.class));
+                // Per-study counters name the studies, so they're only available from ShredderMetricsAction
+                metric.put("shredder", ResponseManager.get().getShredderMetrics(false));
                 return metric;
             });
         }
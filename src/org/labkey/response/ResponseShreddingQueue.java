@@ -0,0 +1,255 @@
+package org.labkey.response;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.security.User;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.ShutdownListener;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded work queue for shredding survey responses.
+ *
+ * Fresh submissions run ahead of recovered or reprocessed responses. Each class of work has its own fixed number of
+ * queue slots; when the submission slots are exhausted the response is simply left PENDING and the recovery feeder
+ * picks it up later. The feeder pages through PENDING rowIds and blocks while the backlog slots are full, so heap
+ * use stays flat however many responses are waiting.
+ */
+class ResponseShreddingQueue
+{
+    private static final Logger logger = LogManager.getLogger(ResponseShreddingQueue.class);
+    private static final String THREAD_NAME = "MobileAppResponseShredder";
+    private static final int RECOVERY_PAGE_SIZE = 500;
+
+    enum Priority
+    {
+        // Declaration order is priority order
+        SUBMISSION,
+        BACKLOG
+    }
+
+    private final BiConsumer<Integer, User> _shredder;
+    private final ShredderMetrics _metrics;
+    private final ThreadPoolExecutor _workers;
+    private final ExecutorService _feeder;
+    private final Semaphore _submissionSlots;
+    private final Semaphore _backlogSlots;
+    private final Set<Integer> _queued = ConcurrentHashMap.newKeySet();
+    private final AtomicLong _sequence = new AtomicLong();
+    private final AtomicBoolean _recoveryRequested = new AtomicBoolean();
+    private final AtomicBoolean _recoveryRunning = new AtomicBoolean();
+
+    /**
+     * @param threadCount number of shredding worker threads
+     * @param queueCapacity number of fresh submissions that may be waiting; recovery/reprocess work gets a quarter of this
+     * @param shredder method that shreds a single response rowId
+     * @param metrics where time spent waiting in the queue is recorded
+     */
+    ResponseShreddingQueue(int threadCount, int queueCapacity, @NotNull BiConsumer<Integer, User> shredder, @NotNull ShredderMetrics metrics)
+    {
+        _shredder = shredder;
+        _metrics = metrics;
+        _submissionSlots = new Semaphore(queueCapacity + threadCount);
+        _backlogSlots = new Semaphore(Math.max(queueCapacity / 4, threadCount) + threadCount);
+        _workers = new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), threadFactory(THREAD_NAME));
+        _feeder = Executors.newSingleThreadExecutor(threadFactory(THREAD_NAME + "Recovery"));
+
+        ContextListener.addShutdownListener(new ShutdownListener()
+        {
+            @Override
+            public String getName()
+            {
+                return THREAD_NAME;
+            }
+
+            @Override
+            public void shutdownPre()
+            {
+                _feeder.shutdownNow();
+            }
+
+            @Override
+            public void shutdownStarted()
+            {
+                // Anything still queued is PENDING in the database and will be recovered at next startup
+                _workers.shutdownNow();
+            }
+        });
+    }
+
+    /**
+     * Queue a response for shredding without blocking the caller
+     * @param rowId mobileappstudy.Response.RowId to process
+     * @param user the user initiating the shredding request, often guest or null
+     * @param priority class of work
+     * @return true if the response was queued (or is already queued), false if the queue was full. A response that
+     * could not be queued remains PENDING and will be picked up by the recovery feeder.
+     */
+    boolean enqueue(@NotNull Integer rowId, @Nullable User user, @NotNull Priority priority)
+    {
+        if (!_queued.add(rowId))
+            return true;
+
+        Semaphore slots = getSlots(priority);
+        if (!slots.tryAcquire())
+        {
+            _queued.remove(rowId);
+            logger.debug(String.format("Shredder queue full, response %1$s will be recovered from pending responses", rowId));
+            requestRecovery();
+            return false;
+        }
+
+        submit(rowId, user, priority, slots);
+        return true;
+    }
+
+    /**
+     * Schedule a scan of PENDING responses. Scans are coalesced so at most one runs at a time.
+     */
+    void requestRecovery()
+    {
+        _recoveryRequested.set(true);
+        if (_recoveryRunning.compareAndSet(false, true))
+            _feeder.execute(this::recover);
+    }
+
+    /**
+     * @return number of responses queued or being shredded
+     */
+    int getQueuedCount()
+    {
+        return _queued.size();
+    }
+
+    private void recover()
+    {
+        try
+        {
+            while (_recoveryRequested.getAndSet(false))
+                feedPendingResponses();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        catch (Exception e)
+        {
+            logger.error("Failed to recover pending survey responses", e);
+        }
+        finally
+        {
+            _recoveryRunning.set(false);
+        }
+
+        // A request may have arrived after the last scan finished but before the running flag was cleared
+        if (_recoveryRequested.get())
+            requestRecovery();
+    }
+
+    private void feedPendingResponses() throws InterruptedException
+    {
+        int lastRowId = 0;
+        int recovered = 0;
+        List<Integer> page;
+        do
+        {
+            page = ResponseManager.get().getPendingResponseIds(lastRowId, RECOVERY_PAGE_SIZE);
+            for (Integer rowId : page)
+            {
+                lastRowId = rowId;
+                if (!_queued.add(rowId))
+                    continue;
+
+                _backlogSlots.acquire();
+                submit(rowId, null, Priority.BACKLOG, _backlogSlots);
+                recovered++;
+            }
+        }
+        while (page.size() == RECOVERY_PAGE_SIZE);
+
+        if (recovered > 0)
+            logger.info(String.format("Queued %1$s pending survey response(s) for processing", recovered));
+    }
+
+    private void submit(Integer rowId, @Nullable User user, Priority priority, Semaphore slots)
+    {
+        _workers.execute(new ShredTask(rowId, user, priority, _sequence.getAndIncrement(), slots));
+    }
+
+    private Semaphore getSlots(Priority priority)
+    {
+        return priority == Priority.SUBMISSION ? _submissionSlots : _backlogSlots;
+    }
+
+    private static ThreadFactory threadFactory(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    private class ShredTask implements Runnable, Comparable<ShredTask>
+    {
+        private final Integer _rowId;
+        private final User _user;
+        private final Priority _priority;
+        private final long _sequence;
+        private final Semaphore _slots;
+        private final long _queuedNanos = System.nanoTime();
+
+        private ShredTask(Integer rowId, User user, Priority priority, long sequence, Semaphore slots)
+        {
+            _rowId = rowId;
+            _user = user;
+            _priority = priority;
+            _sequence = sequence;
+            _slots = slots;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                _metrics.record(ShredderMetrics.Phase.QueueWait, _queuedNanos);
+                _shredder.accept(_rowId, _user);
+            }
+            catch (Throwable t)
+            {
+                logger.error("Unexpected error shredding response " + _rowId, t);
+            }
+            finally
+            {
+                _queued.remove(_rowId);
+                _slots.release();
+            }
+        }
+
+        @Override
+        public int compareTo(@NotNull ShredTask o)
+        {
+            int result = _priority.compareTo(o._priority);
+            return result != 0 ? result : Long.compare(_sequence, o._sequence);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.labkey.response;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.JdbcType;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.query.QueryUpdateService;
+import org.labkey.response.surveydesign.SurveyStep;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Everything the shredder needs to know about one survey list: its table, update service, and the outcome of
+ * checking each result key and type against the list's columns. Plans are cached by {@link ResponseManager} and
+ * discarded whenever a survey design change is saved to the container's lists.
+ */
+class ShredPlan
+{
+    private final TableInfo _table;
+    private final QueryUpdateService _updateService;
+    // "column/resultType" -> validation error, empty if the column is usable
+    private final Map<String, Optional<String>> _columnChecks = new ConcurrentHashMap<>();
+
+    ShredPlan(@NotNull TableInfo table)
+    {
+        _table = table;
+        _updateService = table.getUpdateService();
+    }
+
+    @NotNull
+    TableInfo getTable()
+    {
+        return _table;
+    }
+
+    @NotNull
+    String getName()
+    {
+        return _table.getName();
+    }
+
+    @Nullable
+    QueryUpdateService getUpdateService()
+    {
+        return _updateService;
+    }
+
+    /**
+     * Determine if a column of the appropriate type is available in the list
+     * @param columnName name of the column
+     * @param resultType the type of the column we expect
+     * @return description of the problem, or null if the expected column with the expected type is found
+     */
+    @Nullable
+    String getColumnError(@NotNull String columnName, @NotNull SurveyStep.StepResultType resultType)
+    {
+        return _columnChecks.computeIfAbsent(columnName.toLowerCase() + "/" + resultType.name(), key -> Optional.ofNullable(checkColumn(columnName, resultType))).orElse(null);
+    }
+
+    private String checkColumn(String columnName, SurveyStep.StepResultType resultType)
+    {
+        ColumnInfo column = _table.getColumn(columnName);
+        if (column == null)
+        {
+            return "Unable to find column '" + columnName + "' in list '" + _table.getName() + "'";
+        }
+        else if ((resultType.getDefaultJdbcType() == JdbcType.TIMESTAMP && (column.getJdbcType() == JdbcType.TIMESTAMP || column.getJdbcType() == JdbcType.DATE))
+            || (resultType.getDefaultJdbcType() == JdbcType.INTEGER && (column.getJdbcType() == JdbcType.INTEGER || column.getJdbcType() == JdbcType.DOUBLE)))
+        {
+            // Dates may be stored as DATE and numbers as DOUBLE; the result doesn't say which, so either is accepted
+            return null;
+        }
+        else if (column.getJdbcType() != resultType.getDefaultJdbcType())
+        {
+            return "Type '" + resultType.getResultTypeString() + "' (" + resultType.getDefaultJdbcType() + ") of result '" + columnName + "' does not match expected type (" + column.getJdbcType() + ")";
+        }
+
+        return null;
+    }
+}
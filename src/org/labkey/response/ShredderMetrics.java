@@ -0,0 +1,161 @@
+package org.labkey.response;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory counters and timings for survey response shredding, since server start. Cheap enough to update on every
+ * response; read by the usage metrics and the shredder status admin action.
+ */
+class ShredderMetrics
+{
+    enum Phase
+    {
+        QueueWait("queueWait"),
+        DesignCheck("designCheck"),
+        JsonParse("jsonParse"),
+        ListInsert("listInsert"),
+        MetadataInsert("metadataInsert"),
+        Commit("commit"),
+        StatusUpdate("statusUpdate"),
+        Total("total");
+
+        private final String _name;
+
+        Phase(String name)
+        {
+            _name = name;
+        }
+    }
+
+    private final LongAdder _submitted = new LongAdder();
+    private final LongAdder _deferred = new LongAdder();
+    private final LongAdder _processed = new LongAdder();
+    private final LongAdder _errors = new LongAdder();
+    private final LongAdder _skipped = new LongAdder();
+    private final Map<Phase, Timer> _timers = new ConcurrentHashMap<>();
+    private final Map<String, StudyCounts> _studies = new ConcurrentHashMap<>();
+
+    ShredderMetrics()
+    {
+        for (Phase phase : Phase.values())
+            _timers.put(phase, new Timer());
+    }
+
+    void submitted()
+    {
+        _submitted.increment();
+    }
+
+    /**
+     * A submission didn't fit in the queue and was left PENDING for recovery
+     */
+    void deferred()
+    {
+        _deferred.increment();
+    }
+
+    void skipped()
+    {
+        _skipped.increment();
+    }
+
+    void processed(@Nullable String studyId)
+    {
+        _processed.increment();
+        getStudyCounts(studyId)._processed.increment();
+    }
+
+    void error(@Nullable String studyId)
+    {
+        _errors.increment();
+        getStudyCounts(studyId)._errors.increment();
+    }
+
+    /**
+     * Record the time spent in a phase
+     * @param phase the phase that just finished
+     * @param startNanos System.nanoTime() when the phase started
+     * @return System.nanoTime() now, i.e., the start of the next phase
+     */
+    long record(@NotNull Phase phase, long startNanos)
+    {
+        long now = System.nanoTime();
+        _timers.get(phase).add(now - startNanos);
+        return now;
+    }
+
+    /**
+     * @param queueDepth number of responses currently queued or being shredded
+     * @param includeStudies whether to include per-study counters
+     */
+    Map<String, Object> toMap(int queueDepth, boolean includeStudies)
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("queueDepth", queueDepth);
+        map.put("submitted", _submitted.sum());
+        map.put("deferred", _deferred.sum());
+        map.put("processed", _processed.sum());
+        map.put("errors", _errors.sum());
+        map.put("skipped", _skipped.sum());
+
+        Map<String, Object> timings = new LinkedHashMap<>();
+        for (Phase phase : Phase.values())
+            timings.put(phase._name, _timers.get(phase).toMap());
+        map.put("timings", timings);
+
+        if (includeStudies)
+        {
+            Map<String, Object> studies = new TreeMap<>();
+            _studies.forEach((studyId, counts) -> studies.put(studyId, Map.of("processed", counts._processed.sum(), "errors", counts._errors.sum())));
+            map.put("studies", studies);
+        }
+
+        return map;
+    }
+
+    private StudyCounts getStudyCounts(@Nullable String studyId)
+    {
+        return _studies.computeIfAbsent(studyId == null ? "<unknown>" : studyId, id -> new StudyCounts());
+    }
+
+    private static class StudyCounts
+    {
+        private final LongAdder _processed = new LongAdder();
+        private final LongAdder _errors = new LongAdder();
+    }
+
+    private static class Timer
+    {
+        private final LongAdder _count = new LongAdder();
+        private final LongAdder _totalNanos = new LongAdder();
+        private final LongAccumulator _maxNanos = new LongAccumulator(Long::max, 0);
+
+        private void add(long nanos)
+        {
+            _count.increment();
+            _totalNanos.add(nanos);
+            _maxNanos.accumulate(nanos);
+        }
+
+        private Map<String, Object> toMap()
+        {
+            long count = _count.sum();
+            long total = _totalNanos.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count);
+            map.put("totalMs", TimeUnit.NANOSECONDS.toMillis(total));
+            map.put("avgMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(total / count));
+            map.put("maxMs", TimeUnit.NANOSECONDS.toMillis(_maxNanos.get()));
+            return map;
+        }
+    }
+}
@@ -198,6 +198,7 @@ public class SurveyDesignProcessor extends DynamicListProcessor
             }
 
             listDomain.save(user);
+            ResponseManager.get().invalidateShredPlans(container);
             logger.info(LogMessageFormats.END_SURVEY_UPDATE);
         }
         catch (InvalidDesignException e)
@@ -246,6 +247,7 @@ public class SurveyDesignProcessor extends DynamicListProcessor
         try
         {
             domain.save(user);
+            ResponseManager.get().invalidateShredPlans(container);
         }
         catch (ChangePropertyDescriptorException e)
         {
@@ -0,0 +1,238 @@
+package org.labkey.response.data;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.response.surveydesign.SurveyStep.StepResultType;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming reader for the survey response JSON submitted by the mobile apps. Walks the token stream once and builds
+ * the {@link Response} and its {@link SurveyResult}s directly, including the nested results of grouped steps, instead
+ * of binding everything into generic maps first and converting them afterwards. Unknown properties are skipped.
+ */
+public final class ResponseParser
+{
+    // JsonFactory is thread-safe and relatively expensive to create, so share one
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ResponseParser()
+    {
+    }
+
+    public static Response parse(@NotNull String json) throws IOException
+    {
+        try (JsonParser parser = JSON_FACTORY.createParser(json))
+        {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            Response response = new Response();
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                switch (field)
+                {
+                    case "startTime":
+                    case "start":
+                        response.setStartTime(readDate(parser, token));
+                        break;
+                    case "endTime":
+                    case "end":
+                        response.setEndTime(readDate(parser, token));
+                        break;
+                    case "results":
+                        response.setResults(token == JsonToken.VALUE_NULL ? null : readResults(parser, token));
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            return response;
+        }
+    }
+
+    private static List<SurveyResult> readResults(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_ARRAY);
+        List<SurveyResult> results = new ArrayList<>();
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+            results.add(readResult(parser, token));
+        return results;
+    }
+
+    private static SurveyResult readResult(JsonParser parser, JsonToken token) throws IOException
+    {
+        expect(parser, token, JsonToken.START_OBJECT);
+        SurveyResult result = new SurveyResult();
+        TokenBuffer deferredValue = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String field = parser.getCurrentName();
+            token = parser.nextToken();
+            switch (field)
+            {
+                case "resultType":
+                    result.setResultType(parser.getValueAsString());
+                    break;
+                case "key":
+                    result.setKey(parser.getValueAsString());
+                    break;
+                case "listName":
+                    result.setListName(parser.getValueAsString());
+                    break;
+                case "startTime":
+                case "start":
+                    result.setStartTime(readDate(parser, token));
+                    break;
+                case "endTime":
+                case "end":
+                    result.setEndTime(readDate(parser, token));
+                    break;
+                case "skipped":
+                    result.setSkipped(token == JsonToken.VALUE_NULL ? null : parser.getValueAsBoolean());
+                    break;
+                case "value":
+                    if (result.getResultType() != null)
+                        result.setValue(readValue(parser, token, result.getStepResultType()));
+                    else
+                    {
+                        // The apps send resultType first, but don't depend on it: hold the value until we know its type
+                        deferredValue = new TokenBuffer(parser);
+                        deferredValue.copyCurrentStructure(parser);
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (deferredValue != null)
+        {
+            try (JsonParser valueParser = deferredValue.asParser())
+            {
+                result.setValue(readValue(valueParser, valueParser.nextToken(), result.getStepResultType()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Read a result value. Values of grouped steps are read straight into nested SurveyResults (or lists of them),
+     * anything else is read into the same plain Java types generic data binding would produce.
+     */
+    @Nullable
+    private static Object readValue(JsonParser parser, JsonToken token, StepResultType type) throws IOException
+    {
+        if (token == JsonToken.START_ARRAY && isGrouped(type))
+            return readGroupedResults(parser);
+
+        return readUntyped(parser, token);
+    }
+
+    private static List<Object> readGroupedResults(JsonParser parser) throws IOException
+    {
+        List<Object> results = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+        {
+            if (token == JsonToken.START_OBJECT)
+                results.add(readResult(parser, token));
+            else if (token == JsonToken.START_ARRAY)
+                results.add(readGroupedResults(parser));
+            else
+                results.add(readUntyped(parser, token)); // rejected with a field-specific message when the value is parsed
+        }
+        return results;
+    }
+
+    @Nullable
+    private static Object readUntyped(JsonParser parser, JsonToken token) throws IOException
+    {
+        switch (token)
+        {
+            case START_OBJECT:
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String field = parser.getCurrentName();
+                    map.put(field, readUntyped(parser, parser.nextToken()));
+                }
+                return map;
+            case START_ARRAY:
+                List<Object> list = new ArrayList<>();
+                while ((token = parser.nextToken()) != JsonToken.END_ARRAY)
+                    list.add(readUntyped(parser, token));
+                return list;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException(parser, "Unexpected token " + token);
+        }
+    }
+
+    @Nullable
+    private static Date readDate(JsonParser parser, JsonToken token) throws IOException
+    {
+        switch (token)
+        {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return new Date(parser.getLongValue());
+            case VALUE_STRING:
+                try
+                {
+                    // Same formats accepted by data binding; StdDateFormat isn't thread-safe so use a copy
+                    return StdDateFormat.instance.clone().parse(parser.getText());
+                }
+                catch (ParseException e)
+                {
+                    throw new JsonParseException(parser, "Invalid date value '" + parser.getText() + "'", e);
+                }
+            default:
+                throw new JsonParseException(parser, "Expected date value but found " + token);
+        }
+    }
+
+    private static boolean isGrouped(StepResultType type)
+    {
+        switch (type)
+        {
+            case GroupedResult:
+            case FetalKickCounter:
+            case TowerOfHanoi:
+            case SpatialSpanMemory:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException
+    {
+        if (actual != expected)
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+    }
+}
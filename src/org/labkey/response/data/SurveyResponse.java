@@ -184,6 +184,10 @@ public class SurveyResponse
         _language = language;
     }
 
+    /**
+     * @return the survey response JSON, exactly as the app submitted it. Null if the response has been archived and
+     * wasn't restored.
+     */
     public String getData()
     {
         return _data;
@@ -36,6 +36,8 @@ public class SurveyResult extends ResponseMetadata
     // DateTimeFormatter is thread-safe (unlike SimpleDateFormat)
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+    // ObjectMapper is thread-safe once configured
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private String _resultType;
     private String _key;
@@ -182,24 +184,28 @@ public class SurveyResult extends ResponseMetadata
 
     /**
      * recursively convert a list of survey results, which may itself contain lists of survey results, into a list of objects.
-     * The leaves of this object tree are of type SurveyResult.
+     * The leaves of this object tree are of type SurveyResult. {@link ResponseParser} already produces SurveyResults for
+     * grouped values, so only results bound some other way need converting.
      *
      * @param list The list of objects to be converted
      * @return a list of either SurveyResult objects or List containing the result of a conversion.
      */
     private List<Object> convertSurveyResults(List list)
     {
-        List<Object> results = new ArrayList<>();
-        ObjectMapper mapper = new ObjectMapper();
+        List<Object> results = new ArrayList<>(list.size());
         for (Object item : list)
         {
-            if (item instanceof List)
+            if (item instanceof SurveyResult)
+            {
+                results.add(item);
+            }
+            else if (item instanceof List)
             {
                 results.add(convertSurveyResults((List) item));
             }
             else if (item instanceof LinkedHashMap)
             {
-                results.add(mapper.convertValue(item, SurveyResult.class));
+                results.add(MAPPER.convertValue(item, SurveyResult.class));
             }
             else
             {
@@ -2,17 +2,12 @@ package org.labkey.response.forwarder;
 
 import org.apache.logging.log4j.Logger;
 import org.labkey.api.data.Container;
-import org.labkey.api.pipeline.PipelineJob;
-import org.labkey.api.security.User;
-import org.labkey.response.ResponseManager;
-import org.labkey.response.data.SurveyResponse;
 
-import java.net.Authenticator;
-import java.net.PasswordAuthentication;
-import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
 
 public class BasicAuthForwarder extends Forwarder
 {
@@ -21,37 +16,11 @@ public class BasicAuthForwarder extends Forwarder
         super(container, logger);
     }
 
-    protected HttpClient getClient()
-    {
-        String username = properties.get(ForwarderProperties.USER_PROPERTY_NAME);
-        String pass = properties.get(ForwarderProperties.PASSWORD_PROPERTY_NAME);
-
-        if (client == null)
-        {
-            client = HttpClient.newBuilder()
-                    .authenticator(getPasswordAuthenticator(username, pass))
-                    .build();
-        }
-        return client;
-    }
-
     @Override
-    public PipelineJob.TaskStatus makeRequest(User user, SurveyResponse response) throws Exception
+    protected CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request)
     {
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(getForwardingEndpoint()))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(getRequestBody(response)))
-                .build();
-
-        var httpResponse = getClient().send(req, HttpResponse.BodyHandlers.ofString());
-        if (httpResponse.statusCode() < 200 || 300 < httpResponse.statusCode())
-            return handleError(String.format("Stopping forwarding job. ResponseId [%1$s] received error response %2$s:\n%3$s", response.getRowId(), httpResponse.statusCode(), httpResponse.body()));
-
-        logger.info(String.format("Successfully forwarded response [%1$s].", response.getRowId()));
-        ResponseManager.get().updateProcessingStatus(user, response.getRowId(), SurveyResponse.ResponseStatus.FORWARDED);
-
-        return PipelineJob.TaskStatus.running;
+        // Send credentials up front rather than waiting to be challenged, which would double the requests
+        return getClient().sendAsync(request.header("Authorization", getAuthorization()).build(), HttpResponse.BodyHandlers.ofString());
     }
 
     @Override
@@ -60,21 +29,10 @@ public class BasicAuthForwarder extends Forwarder
         return properties.get(ForwarderProperties.URL_PROPERTY_NAME);
     }
 
-    /**
-     * Provide a basic auth authenticator
-     * @param username for auth
-     * @param pass for auth
-     * @return java.net.Authenticator to use for basic auth with provided credentials
-     */
-    private Authenticator getPasswordAuthenticator(String username, String pass)
+    private String getAuthorization()
     {
-        return new Authenticator()
-        {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication()
-            {
-                return new PasswordAuthentication(username, pass.toCharArray());
-            }
-        };
+        String username = properties.get(ForwarderProperties.USER_PROPERTY_NAME);
+        String pass = properties.get(ForwarderProperties.PASSWORD_PROPERTY_NAME);
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + pass).getBytes(StandardCharsets.UTF_8));
     }
 }
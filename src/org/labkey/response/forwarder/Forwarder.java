@@ -2,24 +2,46 @@ package org.labkey.response.forwarder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.Container;
-import org.labkey.api.pipeline.PipelineJob;
 import org.labkey.api.security.User;
 import org.labkey.response.ResponseManager;
 import org.labkey.response.data.SurveyResponse;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
 
 public abstract class Forwarder
 {
     protected final Container container;
     protected final Map<String, String> properties;
-    protected HttpClient client;
-    private static final String FORWARD_JSON_FORMAT = "{\"type\": \"SurveyResponse\", \"metadata\": {\"activityid\": \"%1$s\", \"version\": \"%2$s\"}, \"token\": \"%3$s\", \"data\": %4$s }";
+    // Envelope for each forwarded response: the prefix, then the response data, then the suffix
+    private static final String FORWARD_JSON_PREFIX_FORMAT = "{\"type\": \"SurveyResponse\", \"metadata\": {\"activityid\": \"%1$s\", \"version\": \"%2$s\"}, \"token\": \"%3$s\", \"data\": ";
+    private static final byte[] FORWARD_JSON_SUFFIX = " }".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NULL_DATA = "null".getBytes(StandardCharsets.UTF_8);
     protected Logger logger;
 
+    private static final int MARK_FORWARDED_ATTEMPTS = 3;
+    // Responses the endpoint has accepted, but which couldn't be marked FORWARDED. Kept until the update succeeds, so
+    // they're never sent twice while the server is up.
+    private static final Set<Integer> deliveredUnmarked = ConcurrentHashMap.newKeySet();
+
     public Forwarder(Container container, Logger logger)
     {
         this.logger = logger != null ? logger : LogManager.getLogger(Forwarder.class.getName());
@@ -27,19 +49,229 @@ public abstract class Forwarder
         this.properties = Collections.unmodifiableMap(new ForwarderProperties().getForwarderConnection(container));
     }
 
-    public abstract PipelineJob.TaskStatus makeRequest(User user, SurveyResponse response) throws Exception;
+    /**
+     * Add authentication to a forwarding request and start sending it
+     * @param request to the forwarding endpoint, complete except for authentication
+     * @return future for the endpoint's reply
+     */
+    protected abstract CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request);
     public abstract String getForwardingEndpoint();
 
-    public PipelineJob.TaskStatus handleError(String msg)
+    /**
+     * Forward a batch of responses without waiting for the endpoint, and mark them all FORWARDED, in a single update,
+     * once the endpoint accepts them. The returned future never completes exceptionally: failures are logged and
+     * reported as false, so callers can go on forwarding other responses.
+     * @param user performing the status update
+     * @param batch to forward
+     * @return future completing with true if the batch was accepted by the endpoint. If it couldn't then be marked
+     * FORWARDED, it's remembered as delivered so it isn't resent, and the update is retried by later runs.
+     */
+    CompletableFuture<Boolean> forwardAsync(User user, ForwardingBatch batch)
+    {
+        List<Integer> rowIds = batch.getRowIds();
+        CompletableFuture<HttpResponse<String>> request;
+        try
+        {
+            request = send(newRequest(batch));
+        }
+        catch (RuntimeException e)
+        {
+            request = CompletableFuture.failedFuture(e);
+        }
+
+        return request.handle((httpResponse, t) -> {
+            if (t != null)
+            {
+                Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                logger.error(String.format("Failed forwarding responseId %1$s with: %2$s", rowIds, cause.getLocalizedMessage()), cause);
+                recordFailure(rowIds, null, cause.getLocalizedMessage());
+                return false;
+            }
+
+            int statusCode = httpResponse.statusCode();
+            if (statusCode < 200 || 300 <= statusCode)
+            {
+                logger.error(String.format("ResponseId %1$s received error response %2$s:\n%3$s", rowIds, statusCode, httpResponse.body()));
+                recordFailure(rowIds, statusCode, httpResponse.body());
+                return false;
+            }
+
+            if (!markForwarded(user, rowIds))
+            {
+                // The endpoint has these responses, so they must not be sent again. They're still PROCESSED, so
+                // remember them: forwarding runs skip them and retry the status update until it succeeds.
+                deliveredUnmarked.addAll(rowIds);
+                logger.error(String.format("Delivered but unmarked: responseId %1$s was accepted by the endpoint, but its status could not be updated. It won't be resent, and the update will be retried by the next forwarding run.", rowIds));
+                return true;
+            }
+
+            logger.info(String.format("Successfully forwarded response %1$s.", rowIds));
+            return true;
+        });
+    }
+
+    /**
+     * Mark responses the endpoint has accepted as FORWARDED, trying again straight away if the update fails
+     * @return true if the update succeeded
+     */
+    private boolean markForwarded(User user, Collection<Integer> rowIds)
+    {
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                ResponseManager.get().markForwarded(user, rowIds);
+                return true;
+            }
+            catch (RuntimeException e)
+            {
+                logger.warn(String.format("Unable to mark responseId %1$s forwarded (attempt %2$s of %3$s): %4$s", rowIds, attempt, MARK_FORWARDED_ATTEMPTS, e.getLocalizedMessage()), e);
+                if (attempt >= MARK_FORWARDED_ATTEMPTS)
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * @return true if the endpoint has accepted this response, but it couldn't be marked FORWARDED; it must not be sent
+     * again
+     */
+    static boolean isDeliveredUnmarked(int rowId)
+    {
+        return deliveredUnmarked.contains(rowId);
+    }
+
+    /**
+     * Retry the status update for responses that were delivered but couldn't be marked FORWARDED
+     */
+    void markDeliveredResponses(User user)
+    {
+        if (deliveredUnmarked.isEmpty())
+            return;
+
+        List<Integer> rowIds = new ArrayList<>(deliveredUnmarked);
+        if (markForwarded(user, rowIds))
+        {
+            rowIds.forEach(deliveredUnmarked::remove);
+            logger.info(String.format("Marked previously delivered responseId %1$s forwarded.", rowIds));
+        }
+    }
+
+    /**
+     * Schedule the next attempt for responses that weren't accepted, and log any that have now been parked
+     */
+    private void recordFailure(List<Integer> rowIds, @Nullable Integer statusCode, @Nullable String error)
+    {
+        try
+        {
+            List<Integer> parked = ResponseManager.get().recordForwardingFailure(rowIds, statusCode, error);
+            if (!parked.isEmpty())
+                logger.error(String.format("ResponseId %1$s will not be retried until an administrator requests it: too many failed attempts", parked));
+        }
+        catch (RuntimeException e)
+        {
+            logger.error(String.format("Unable to record failed forwarding attempt for responseId %1$s: %2$s", rowIds, e.getLocalizedMessage()), e);
+        }
+    }
+
+    private HttpRequest.Builder newRequest(ForwardingBatch batch)
+    {
+        HttpRequest.Builder builder = ForwardingClients.newRequest(URI.create(getForwardingEndpoint()))
+                .header("Content-Type", "application/json");
+
+        if (isCompressed())
+        {
+            builder.header("Content-Encoding", "gzip");
+            return builder.POST(HttpRequest.BodyPublishers.ofByteArray(gzip(batch)));
+        }
+
+        // Send the body's segments one after another instead of joining them, keeping the Content-Length header
+        return builder.POST(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofByteArrays(batch.getBody()), batch.length()));
+    }
+
+    /**
+     * @return the shared client for this forwarder's endpoint
+     */
+    protected HttpClient getClient()
+    {
+        return ForwardingClients.getClient(URI.create(getForwardingEndpoint()));
+    }
+
+    private static byte[] gzip(ForwardingBatch batch)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes))
+        {
+            batch.writeBody(out);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return maximum number of requests to have outstanding with the endpoint at once
+     */
+    public int getMaxInFlight()
+    {
+        return ForwarderProperties.getMaxInFlight(properties);
+    }
+
+    /**
+     * @return true if each participant's responses must reach the endpoint in the order they were submitted
+     */
+    public boolean isParticipantOrderPreserved()
+    {
+        return ForwarderProperties.isParticipantOrderPreserved(properties);
+    }
+
+    /**
+     * @return maximum number of responses to send in one request, or 0 to send each response on its own
+     */
+    public int getBatchSize()
+    {
+        return ForwarderProperties.getBatchSize(properties);
+    }
+
+    /**
+     * @return maximum length, in bytes, of a batched request body; a batch is sent as soon as it reaches this size
+     */
+    public int getMaxBatchLength()
+    {
+        return ForwarderProperties.getMaxBatchKilobytes(properties) * 1024;
+    }
+
+    /**
+     * @return true if request bodies are gzip compressed
+     */
+    public boolean isCompressed()
+    {
+        return ForwarderProperties.isCompressed(properties);
+    }
+
+    /**
+     * Build a response's envelope. The response data is read as stored, as UTF-8 bytes, and used as it is; only the
+     * small envelope prefix is formatted.
+     * @param response to forward, with or without its data
+     * @param token the participant's enrollment token, if any
+     * @return the envelope's segments: prefix, response data, and suffix
+     */
+    List<byte[]> getEnvelope(SurveyResponse response, @Nullable String token)
+    {
+        return List.of(getEnvelopePrefix(response, token), getData(response), FORWARD_JSON_SUFFIX);
+    }
+
+    protected byte[] getEnvelopePrefix(SurveyResponse response, @Nullable String token)
     {
-        logger.error(msg);
-        ResponseManager.get().setForwardingJobUnsucessful(container);
-        return PipelineJob.TaskStatus.error;
+        return String.format(FORWARD_JSON_PREFIX_FORMAT, response.getActivityId(), response.getSurveyVersion(), token).getBytes(StandardCharsets.UTF_8);
     }
 
-    protected String getRequestBody(SurveyResponse response)
+    protected byte[] getData(SurveyResponse response)
     {
-        String token = ResponseManager.get().getEnrollmentToken(response.getContainer(), response.getParticipantId());
-        return String.format(FORWARD_JSON_FORMAT, response.getActivityId(), response.getSurveyVersion(), token, response.getData());
+        // Responses may have been fetched without their data
+        byte[] data = response.getData() != null ? response.getData().getBytes(StandardCharsets.UTF_8) : ResponseManager.get().getResponseDataBytes(response.getRowId());
+        return data != null ? data : NULL_DATA;
     }
 }
@@ -40,6 +40,17 @@ public class ForwarderProperties
     public static final String TOKEN_FIELD = "TOKEN_FIELD";
     public static final String TOKEN_HEADER = "TOKEN_HEADER";
     public static final String OAUTH_URL = "OAUTH_URL";
+    public static final String MAX_IN_FLIGHT = "MAX_IN_FLIGHT";
+    public static final String PRESERVE_PARTICIPANT_ORDER = "PRESERVE_PARTICIPANT_ORDER";
+    public static final String BATCH_SIZE = "BATCH_SIZE";
+    public static final String BATCH_MAX_KB = "BATCH_MAX_KB";
+    public static final String COMPRESS_REQUESTS = "COMPRESS_REQUESTS";
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    public static final int MAX_MAX_IN_FLIGHT = 64;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final int DEFAULT_BATCH_MAX_KB = 1024;
+    public static final int MAX_BATCH_MAX_KB = 64 * 1024;
 
     public static final Set<String> PROPERTIES = Set.of(
         PASSWORD_PLACEHOLDER,
@@ -51,7 +62,12 @@ public class ForwarderProperties
         TOKEN_REQUEST_URL,
         TOKEN_FIELD,
         TOKEN_HEADER,
-        OAUTH_URL);
+        OAUTH_URL,
+        MAX_IN_FLIGHT,
+        PRESERVE_PARTICIPANT_ORDER,
+        BATCH_SIZE,
+        BATCH_MAX_KB,
+        COMPRESS_REQUESTS);
 
     /**
      * Set the connection properties for the forwarding endpoint
@@ -112,4 +128,66 @@ public class ForwarderProperties
             return ForwardingType.Disabled;
         }
     }
+
+    /**
+     * @param properties forwarder connection properties
+     * @return configured number of concurrent forwarding requests, clamped to the supported range
+     */
+    public static int getMaxInFlight(Map<String, String> properties)
+    {
+        return getIntProperty(properties, MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT, 1, MAX_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param properties forwarder connection properties
+     * @return maximum number of responses to send as a JSON array in one request, or 0 if batching is disabled
+     */
+    public static int getBatchSize(Map<String, String> properties)
+    {
+        return getIntProperty(properties, BATCH_SIZE, 0, 0, MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param properties forwarder connection properties
+     * @return approximate maximum size of a batched request body, in kilobytes
+     */
+    public static int getMaxBatchKilobytes(Map<String, String> properties)
+    {
+        return getIntProperty(properties, BATCH_MAX_KB, DEFAULT_BATCH_MAX_KB, 1, MAX_BATCH_MAX_KB);
+    }
+
+    /**
+     * @param properties forwarder connection properties
+     * @return true if request bodies should be sent gzip compressed
+     */
+    public static boolean isCompressed(Map<String, String> properties)
+    {
+        return Boolean.parseBoolean(properties.get(COMPRESS_REQUESTS));
+    }
+
+    private static int getIntProperty(Map<String, String> properties, String name, int defaultValue, int min, int max)
+    {
+        String value = properties.get(name);
+        if (StringUtils.isBlank(value))
+            return defaultValue;
+
+        try
+        {
+            return Math.max(min, Math.min(max, Integer.parseInt(value.trim())));
+        }
+        catch (NumberFormatException e)
+        {
+            LOG.warn("Invalid " + name + " forwarding property: " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @param properties forwarder connection properties
+     * @return true unless participant ordering has been explicitly turned off
+     */
+    public static boolean isParticipantOrderPreserved(Map<String, String> properties)
+    {
+        return !"false".equalsIgnoreCase(properties.get(PRESERVE_PARTICIPANT_ORDER));
+    }
 }
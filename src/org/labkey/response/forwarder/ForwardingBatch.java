@@ -0,0 +1,106 @@
+package org.labkey.response.forwarder;
+
+import org.labkey.response.data.SurveyResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * The responses sent in one forwarding request: either a single response envelope, or, when batching is enabled, a
+ * JSON array of response envelopes. The body is kept as a list of segments, with each response's payload held as the
+ * bytes read from the database, so building and sending a request never copies payloads into one large buffer.
+ */
+class ForwardingBatch
+{
+    private static final byte[] ARRAY_START = {'['};
+    private static final byte[] ARRAY_END = {']'};
+    private static final byte[] SEPARATOR = {','};
+
+    private final boolean _array;
+    private final List<SurveyResponse> _responses = new ArrayList<>();
+    private final List<byte[]> _segments = new ArrayList<>();
+    private long _length = 0;
+
+    ForwardingBatch(boolean array)
+    {
+        _array = array;
+        if (_array)
+            append(ARRAY_START);
+    }
+
+    /**
+     * Add a response's envelope to the body
+     * @param envelope the envelope's segments, including the response payload
+     */
+    void add(SurveyResponse response, List<byte[]> envelope)
+    {
+        if (!_array && !_responses.isEmpty())
+            throw new IllegalStateException("Only batched requests can hold more than one response");
+
+        if (!_responses.isEmpty())
+            append(SEPARATOR);
+        envelope.forEach(this::append);
+        _responses.add(response);
+    }
+
+    /**
+     * @return length, in bytes, that an envelope adds to the body
+     */
+    static long length(List<byte[]> envelope)
+    {
+        return SEPARATOR.length + envelope.stream().mapToLong(segment -> segment.length).sum();
+    }
+
+    private void append(byte[] segment)
+    {
+        _segments.add(segment);
+        _length += segment.length;
+    }
+
+    List<SurveyResponse> getResponses()
+    {
+        return _responses;
+    }
+
+    List<Integer> getRowIds()
+    {
+        return _responses.stream().map(SurveyResponse::getRowId).collect(Collectors.toList());
+    }
+
+    int size()
+    {
+        return _responses.size();
+    }
+
+    /**
+     * @return length of the request body so far, in bytes
+     */
+    long length()
+    {
+        return _length + (_array ? ARRAY_END.length : 0);
+    }
+
+    /**
+     * @return the request body's segments, in order. Can be iterated more than once, e.g., to resend the request.
+     */
+    List<byte[]> getBody()
+    {
+        if (!_array)
+            return Collections.unmodifiableList(_segments);
+
+        List<byte[]> body = new ArrayList<>(_segments.size() + 1);
+        body.addAll(_segments);
+        body.add(ARRAY_END);
+        return body;
+    }
+
+    void writeBody(OutputStream out) throws IOException
+    {
+        for (byte[] segment : getBody())
+            out.write(segment);
+    }
+}
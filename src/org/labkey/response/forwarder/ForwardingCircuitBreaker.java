@@ -0,0 +1,240 @@
+package org.labkey.response.forwarder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.PropertyManager;
+import org.labkey.api.util.logging.LogHelper;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-container circuit breaker for response forwarding. A forwarding run that can't get anything through to the
+ * endpoint opens the circuit, and no forwarding is attempted until a backoff delay has passed. The delay doubles with
+ * each consecutive failure, up to a limit, with random jitter so that studies sharing an endpoint don't retry in
+ * lockstep. After the delay a single trial run is allowed (half-open): success closes the circuit, failure re-opens it
+ * with a longer delay. Circuit state is saved in the container's properties so it survives a restart.
+ */
+public class ForwardingCircuitBreaker
+{
+    private static final Logger LOG = LogHelper.getLogger(ForwardingCircuitBreaker.class, "Response forwarding circuit breaker");
+    private static final ForwardingCircuitBreaker INSTANCE = new ForwardingCircuitBreaker();
+
+    private static final String CATEGORY = "MobileAppForwarderCircuit";
+    private static final String STATE = "State";
+    private static final String FAILURES = "Failures";
+    private static final String OPEN_UNTIL = "OpenUntil";
+    private static final String LAST_ERROR = "LastError";
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private static final long BASE_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_DELAY_MILLIS = TimeUnit.HOURS.toMillis(4);
+    // A trial run that hasn't reported back by then is assumed lost
+    private static final long TRIAL_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    public enum State
+    {
+        Closed,
+        Open,
+        HalfOpen
+    }
+
+    private final Map<String, Circuit> _circuits = new ConcurrentHashMap<>();
+
+    private ForwardingCircuitBreaker()
+    {
+    }
+
+    public static ForwardingCircuitBreaker get()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Check whether forwarding may be attempted for a container. Once an open circuit's delay has passed this allows a
+     * single trial run, and refuses any others until its outcome has been recorded.
+     */
+    public boolean allowRequest(@NotNull Container c)
+    {
+        return getCircuit(c).allowRequest(c);
+    }
+
+    /**
+     * Record a forwarding run that reached the endpoint, closing the circuit
+     */
+    public void recordSuccess(@NotNull Container c)
+    {
+        getCircuit(c).recordSuccess(c);
+    }
+
+    /**
+     * Record a forwarding run that couldn't get anything through, opening the circuit
+     * @param reason description of the failure, shown to admins
+     */
+    public void recordFailure(@NotNull Container c, @Nullable String reason)
+    {
+        getCircuit(c).recordFailure(c, reason);
+    }
+
+    /**
+     * Record that a run admitted by {@link #allowRequest} has finished. If it recorded neither success nor failure,
+     * e.g., because it turned out to have nothing to send, a half-open circuit allows another trial straight away.
+     */
+    public void endTrial(@NotNull Container c)
+    {
+        getCircuit(c).endTrial();
+    }
+
+    /**
+     * Close the circuit and forget past failures, e.g., because the forwarding configuration has changed
+     */
+    public void reset(@NotNull Container c)
+    {
+        getCircuit(c).reset(c);
+    }
+
+    @NotNull
+    public Circuit getCircuit(@NotNull Container c)
+    {
+        return _circuits.computeIfAbsent(c.getId(), id -> new Circuit(PropertyManager.getProperties(c, CATEGORY)));
+    }
+
+    public static class Circuit
+    {
+        private State _state = State.Closed;
+        private int _failures = 0;
+        private long _openUntil = 0;
+        private String _lastError = null;
+        private long _trialStarted = 0;
+
+        private Circuit(Map<String, String> saved)
+        {
+            try
+            {
+                if (saved.containsKey(STATE))
+                    _state = State.valueOf(saved.get(STATE));
+                _failures = Integer.parseInt(saved.getOrDefault(FAILURES, "0"));
+                _openUntil = Long.parseLong(saved.getOrDefault(OPEN_UNTIL, "0"));
+                _lastError = saved.get(LAST_ERROR);
+            }
+            catch (IllegalArgumentException e)
+            {
+                LOG.warn("Ignoring invalid saved forwarding circuit state: " + saved);
+                _state = State.Closed;
+                _failures = 0;
+                _openUntil = 0;
+            }
+        }
+
+        private synchronized boolean allowRequest(Container c)
+        {
+            switch (_state)
+            {
+                case Closed:
+                    return true;
+                case Open:
+                    if (System.currentTimeMillis() < _openUntil)
+                        return false;
+                    _state = State.HalfOpen;
+                    _trialStarted = 0;
+                    save(c);
+                    // fall through
+                case HalfOpen:
+                default:
+                    long now = System.currentTimeMillis();
+                    if (_trialStarted > 0 && now - _trialStarted < TRIAL_TIMEOUT_MILLIS)
+                        return false;
+                    _trialStarted = now;
+                    LOG.info(String.format("Trying response forwarding for container [%1$s] after %2$s failure(s).", c.getName(), _failures));
+                    return true;
+            }
+        }
+
+        private synchronized void recordSuccess(Container c)
+        {
+            _trialStarted = 0;
+            if (_state == State.Closed && _failures == 0)
+                return;
+
+            if (_state != State.Closed)
+                LOG.info(String.format("Response forwarding for container [%1$s] has recovered.", c.getName()));
+            _state = State.Closed;
+            _failures = 0;
+            _openUntil = 0;
+            save(c);
+        }
+
+        private synchronized void recordFailure(Container c, String reason)
+        {
+            _trialStarted = 0;
+            _failures++;
+            _state = State.Open;
+            _openUntil = System.currentTimeMillis() + getDelay(_failures);
+            _lastError = StringUtils.abbreviate(reason, MAX_ERROR_LENGTH);
+            save(c);
+            LOG.warn(String.format("Response forwarding for container [%1$s] paused until %2$s after %3$s consecutive failure(s).", c.getName(), new Date(_openUntil), _failures));
+        }
+
+        private synchronized void endTrial()
+        {
+            _trialStarted = 0;
+        }
+
+        private synchronized void reset(Container c)
+        {
+            _trialStarted = 0;
+            _state = State.Closed;
+            _failures = 0;
+            _openUntil = 0;
+            _lastError = null;
+            save(c);
+        }
+
+        /**
+         * Exponential backoff with "equal jitter": half the delay is fixed, the other half random
+         */
+        private static long getDelay(int failures)
+        {
+            long delay = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(failures - 1, 20));
+            return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        }
+
+        private void save(Container c)
+        {
+            PropertyManager.PropertyMap map = PropertyManager.getWritableProperties(c, CATEGORY, true);
+            map.put(STATE, _state.name());
+            map.put(FAILURES, String.valueOf(_failures));
+            map.put(OPEN_UNTIL, String.valueOf(_openUntil));
+            map.put(LAST_ERROR, _lastError);
+            map.save();
+        }
+
+        public synchronized State getState()
+        {
+            return _state;
+        }
+
+        public synchronized int getFailures()
+        {
+            return _failures;
+        }
+
+        @Nullable
+        public synchronized Date getOpenUntil()
+        {
+            return _state == State.Open ? new Date(_openUntil) : null;
+        }
+
+        @Nullable
+        public synchronized String getLastError()
+        {
+            return _lastError;
+        }
+    }
+}
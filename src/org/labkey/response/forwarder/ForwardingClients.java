@@ -0,0 +1,109 @@
+package org.labkey.response.forwarder;
+
+import org.jetbrains.annotations.NotNull;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.ShutdownListener;
+import org.labkey.response.ResponseModule;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared HTTP clients for response forwarding, one per endpoint origin (scheme, host and port). Every forwarding
+ * run, and the OAuth token requests, for an endpoint go through the same client and so reuse its pooled keep-alive
+ * connections and TLS sessions instead of connecting and handshaking afresh. Clients prefer HTTP/2, and all of them
+ * share a small, bounded pool of threads for their asynchronous work.
+ */
+class ForwardingClients
+{
+    private static final String THREAD_NAME = "MobileAppForwarding";
+    private static final int THREAD_COUNT = 8;
+
+    private static final Map<String, HttpClient> CLIENTS = new ConcurrentHashMap<>();
+    private static final ExecutorService EXECUTOR;
+
+    static
+    {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, THREAD_NAME + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        EXECUTOR = executor;
+
+        ContextListener.addShutdownListener(new ShutdownListener()
+        {
+            @Override
+            public String getName()
+            {
+                return THREAD_NAME;
+            }
+
+            @Override
+            public void shutdownPre()
+            {
+            }
+
+            @Override
+            public void shutdownStarted()
+            {
+                CLIENTS.clear();
+                EXECUTOR.shutdownNow();
+            }
+        });
+    }
+
+    private ForwardingClients()
+    {
+    }
+
+    /**
+     * @param endpoint a URL the client will be used for
+     * @return the shared client for the endpoint's origin
+     */
+    @NotNull
+    static HttpClient getClient(@NotNull URI endpoint)
+    {
+        int connectTimeout = getConnectTimeoutSeconds();
+        // Include the timeout so that a changed setting takes effect without a restart
+        String key = endpoint.getScheme() + "://" + endpoint.getAuthority() + "#" + connectTimeout;
+        return CLIENTS.computeIfAbsent(key, k -> HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(connectTimeout))
+                .executor(EXECUTOR)
+                .build());
+    }
+
+    /**
+     * @param endpoint to send the request to
+     * @return a request builder for the endpoint, with the configured request timeout
+     */
+    @NotNull
+    static HttpRequest.Builder newRequest(@NotNull URI endpoint)
+    {
+        return HttpRequest.newBuilder()
+                .uri(endpoint)
+                .timeout(Duration.ofSeconds(getRequestTimeoutSeconds()));
+    }
+
+    private static int getConnectTimeoutSeconds()
+    {
+        return Math.max(1, ResponseModule.getIntModuleProperty(ResponseModule.FORWARDING_CONNECT_TIMEOUT_PROPERTY, ResponseModule.DEFAULT_FORWARDING_CONNECT_TIMEOUT));
+    }
+
+    private static int getRequestTimeoutSeconds()
+    {
+        return Math.max(1, ResponseModule.getIntModuleProperty(ResponseModule.FORWARDING_REQUEST_TIMEOUT_PROPERTY, ResponseModule.DEFAULT_FORWARDING_REQUEST_TIMEOUT));
+    }
+}
@@ -17,34 +17,54 @@ package org.labkey.response.forwarder;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
 import org.labkey.api.collections.ConcurrentHashSet;
 import org.labkey.api.data.Container;
-import org.labkey.api.util.DateUtil;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.ShutdownListener;
 import org.labkey.response.ResponseManager;
-import org.quartz.JobBuilder;
-import org.quartz.JobDetail;
-import org.quartz.SchedulerException;
-import org.quartz.SimpleScheduleBuilder;
-import org.quartz.Trigger;
-import org.quartz.TriggerBuilder;
-import org.quartz.TriggerKey;
-import org.quartz.impl.StdSchedulerFactory;
+import org.labkey.response.ResponseModule;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-
+/**
+ * Starts response forwarding for a container when there is something to forward, rather than polling. Processing a
+ * response marks its container dirty: the first mark schedules a forwarding run after at most the configured maximum
+ * latency, and any further marks before then are coalesced into that run. Runs are carried out on a small pool of
+ * worker threads by the container's long-lived {@link ForwardingWorker}, and at most one runs per container at a time;
+ * marks that arrive while it runs schedule a follow-up run once it finishes. Runs are also scheduled at
+ * startup to catch up on any backlog, after a run that left responses behind, and when a paused container's
+ * {@link ForwardingCircuitBreaker} is due for a trial.
+ */
 public class ForwardingScheduler
 {
-    private static JobDetail job = null;
     private static final Logger logger = LogManager.getLogger(ForwardingScheduler.class);
-    private static final int INTERVAL_MINUTES = 5;
+    private static final String THREAD_NAME = "MobileAppForwardingScheduler";
+    private static final String WORKER_THREAD_NAME = "MobileAppForwardingWorker";
+    private static final int WORKER_THREADS = 4;
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    // A run that hasn't reported back by then is assumed hung, and another may be started
+    private static final long RUNNING_TIMEOUT_MILLIS = TimeUnit.HOURS.toMillis(2);
     private static final ForwardingScheduler instance = new ForwardingScheduler();
     private static final Set<String> enabledContainers = new ConcurrentHashSet<>();
 
-    private TriggerKey triggerKey;
+    private final Map<String, ContainerState> _states = new ConcurrentHashMap<>();
+    private ScheduledExecutorService _executor = null;
+    private ExecutorService _workers = null;
 
     private ForwardingScheduler()
     {
@@ -60,46 +80,194 @@ public class ForwardingScheduler
         enabledContainers.clear();
         enabledContainers.addAll(refreshEnabledContainers());
 
-        if (job == null)
+        if (_executor == null)
         {
-            job = JobBuilder.newJob(SurveyResponseForwardingJob.class)
-                .withIdentity(ForwardingScheduler.class.getCanonicalName(), ForwardingScheduler.class.getCanonicalName())
-                .usingJobData("surveyResponseForwarder", ForwardingScheduler.class.getCanonicalName())
-                .build();
+            _executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, THREAD_NAME);
+                t.setDaemon(true);
+                return t;
+            });
+            AtomicInteger workerCount = new AtomicInteger();
+            _workers = Executors.newFixedThreadPool(WORKER_THREADS, r -> {
+                Thread t = new Thread(r, WORKER_THREAD_NAME + "-" + workerCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+
+            ContextListener.addShutdownListener(new ShutdownListener()
+            {
+                @Override
+                public String getName()
+                {
+                    return THREAD_NAME;
+                }
+
+                @Override
+                public void shutdownPre()
+                {
+                    unschedule();
+                }
+
+                @Override
+                public void shutdownStarted()
+                {
+                }
+            });
         }
 
-        Trigger trigger = TriggerBuilder.newTrigger()
-            .withIdentity(ForwardingScheduler.class.getCanonicalName(), ForwardingScheduler.class.getCanonicalName())
-            .withSchedule(SimpleScheduleBuilder.repeatMinutelyForever(getIntervalMinutes()))
-            .forJob(job)
-            .build();
+        // Catch up on anything left to forward from before the restart
+        enabledContainers.forEach(id -> request(id, 0));
+        logger.info(String.format("SurveyResponseForwarder started for %1$s container(s), with a maximum latency of %2$s seconds.", enabledContainers.size(), getMaxLatencySeconds()));
+    }
 
-        this.triggerKey = trigger.getKey();
+    public synchronized void unschedule()
+    {
+        if (_executor != null)
+        {
+            _executor.shutdownNow();
+            _executor = null;
+            _workers.shutdownNow();
+            _workers = null;
+            _states.values().forEach(ContainerState::closeWorker);
+            _states.clear();
+            logger.info("SurveyResponseForwarder has been unscheduled.");
+        }
+    }
 
-        try
+    /**
+     * Note that a container has responses to forward. Cheap enough to call for every processed response.
+     */
+    public void requestForwarding(@NotNull Container c)
+    {
+        if (forwardingIsEnabled(c))
+            request(c.getId(), TimeUnit.SECONDS.toMillis(getMaxLatencySeconds()));
+    }
+
+    /**
+     * Called when a container's forwarding run is done, successful or not
+     * @param c container that was forwarded
+     * @param retry true if responses were left behind that should be retried
+     */
+    public void forwardingFinished(@NotNull Container c, boolean retry)
+    {
+        // The container may have been deleted while it was running
+        ContainerState state = _states.get(c.getId());
+        if (state == null)
+            return;
+
+        boolean dirty;
+        synchronized (state)
+        {
+            dirty = state._dirty;
+            state._dirty = false;
+            state._runningSince = 0;
+        }
+
+        // Forwarding may have been disabled while it was running; release the log it kept open
+        if (!forwardingIsEnabled(c))
         {
-            StdSchedulerFactory.getDefaultScheduler().scheduleJob(job, trigger);
-            logger.info(String.format("SurveyResponseForwarder scheduled to run every %1$S minutes. Next runtime %2$s", getIntervalMinutes(), DateUtil.formatDateTimeISO8601(trigger.getNextFireTime())));
+            state.closeWorker();
+            return;
         }
-        catch (SchedulerException e)
+
+        Date pausedUntil = ForwardingCircuitBreaker.get().getCircuit(c).getOpenUntil();
+        if (pausedUntil != null)
+            request(c.getId(), Math.max(0, pausedUntil.getTime() - System.currentTimeMillis()));
+        else if (dirty)
+            requestForwarding(c);
+        else if (retry)
         {
-            logger.error("Failed to schedule SurveyResponseForwarder.", e);
+            // Come back when the earliest failed response is due for another attempt
+            Date nextAttempt = ResponseManager.get().getNextForwardingAttempt(c);
+            request(c.getId(), nextAttempt == null ? RETRY_DELAY_MILLIS : Math.max(0, nextAttempt.getTime() - System.currentTimeMillis()));
         }
     }
 
-    public synchronized void unschedule()
+    private void request(String containerId, long delayMillis)
+    {
+        ScheduledExecutorService executor = _executor;
+        if (executor == null)
+            return;
+
+        ContainerState state = getState(containerId);
+        long dueAt = System.currentTimeMillis() + delayMillis;
+        synchronized (state)
+        {
+            if (state.isRunning())
+            {
+                state._dirty = true;
+                return;
+            }
+
+            // Coalesce with an already scheduled run, unless this one is due sooner
+            if (state._scheduled != null && !state._scheduled.isDone())
+            {
+                if (state._dueAt <= dueAt)
+                    return;
+                state._scheduled.cancel(false);
+            }
+
+            state._dueAt = dueAt;
+            state._scheduled = executor.schedule(() -> run(containerId), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void run(String containerId)
     {
+        ContainerState state = getState(containerId);
+        synchronized (state)
+        {
+            if (state.isRunning())
+            {
+                state._dirty = true;
+                return;
+            }
+            state._scheduled = null;
+            state._dirty = false;
+            state._runningSince = System.currentTimeMillis();
+        }
+
+        Container c = ContainerManager.getForId(containerId);
+        ExecutorService workers = _workers;
         try
         {
-            StdSchedulerFactory.getDefaultScheduler().unscheduleJob(triggerKey);
-            logger.info("SurveyResponseForwarder has been unscheduled.");
+            if (null != c && null != workers)
+            {
+                ForwardingWorker worker = state.getWorker(c);
+                workers.execute(() -> {
+                    boolean retry = false;
+                    try
+                    {
+                        retry = worker.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        logger.error(String.format("Response forwarding failed for container [%1$s].", c.getName()), e);
+                    }
+                    finally
+                    {
+                        forwardingFinished(c, retry);
+                    }
+                });
+                return;
+            }
+        }
+        catch (RejectedExecutionException e)
+        {
+            logger.debug(String.format("Not forwarding for container [%1$s], the forwarding workers have been shut down.", containerId));
         }
-        catch (SchedulerException e)
+
+        synchronized (state)
         {
-            logger.error("Failed to unschedule SurveyResponseForwarder.", e);
+            state._runningSince = 0;
         }
     }
 
+    private ContainerState getState(String containerId)
+    {
+        return _states.computeIfAbsent(containerId, id -> new ContainerState());
+    }
+
     private Set<String> refreshEnabledContainers()
     {
         return ResponseManager.get().getStudyContainers().stream()
@@ -116,9 +284,44 @@ public class ForwardingScheduler
     public void enableContainer(Container c, boolean enable)
     {
         if (enable)
+        {
             enabledContainers.add(c.getId());
+            request(c.getId(), 0);
+        }
         else
+        {
             enabledContainers.remove(c.getId());
+            ContainerState state = _states.get(c.getId());
+            if (state != null)
+                state.closeWorker();
+        }
+    }
+
+    /**
+     * Forget a deleted container: cancel any scheduled run and release its worker's log
+     */
+    public void containerDeleted(@NotNull Container c)
+    {
+        enabledContainers.remove(c.getId());
+        ContainerState state = _states.remove(c.getId());
+        if (state != null)
+        {
+            synchronized (state)
+            {
+                if (state._scheduled != null)
+                    state._scheduled.cancel(false);
+            }
+            state.closeWorker();
+        }
+    }
+
+    /**
+     * Outcome of the container's most recent forwarding run, or an empty map if it has never run
+     */
+    @NotNull
+    public Map<String, Object> getLastRun(@NotNull Container c)
+    {
+        return ForwardingWorker.getLastRun(c);
     }
 
     public boolean forwardingIsEnabled(Container c)
@@ -129,8 +332,38 @@ public class ForwardingScheduler
         return enabledContainers.contains(c.getId());
     }
 
-    protected int getIntervalMinutes()
+    protected int getMaxLatencySeconds()
     {
-        return INTERVAL_MINUTES;
+        return Math.max(0, ResponseModule.getIntModuleProperty(ResponseModule.FORWARDING_MAX_LATENCY_PROPERTY, ResponseModule.DEFAULT_FORWARDING_MAX_LATENCY));
+    }
+
+    private static class ContainerState
+    {
+        private ScheduledFuture<?> _scheduled = null;
+        private long _dueAt = 0;
+        private long _runningSince = 0;
+        private boolean _dirty = false;
+        private ForwardingWorker _worker = null;
+
+        private boolean isRunning()
+        {
+            return _runningSince > 0 && System.currentTimeMillis() - _runningSince < RUNNING_TIMEOUT_MILLIS;
+        }
+
+        private synchronized ForwardingWorker getWorker(Container c)
+        {
+            if (_worker == null)
+                _worker = new ForwardingWorker(c);
+            return _worker;
+        }
+
+        private synchronized void closeWorker()
+        {
+            if (_worker != null)
+            {
+                _worker.close();
+                _worker = null;
+            }
+        }
     }
 }
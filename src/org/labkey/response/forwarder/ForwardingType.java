@@ -14,9 +14,19 @@ import java.util.Map;
 
 import static org.labkey.api.action.SpringActionController.ERROR_MSG;
 import static org.labkey.api.action.SpringActionController.ERROR_REQUIRED;
+import static org.labkey.response.forwarder.ForwarderProperties.BATCH_MAX_KB;
+import static org.labkey.response.forwarder.ForwarderProperties.BATCH_SIZE;
+import static org.labkey.response.forwarder.ForwarderProperties.COMPRESS_REQUESTS;
+import static org.labkey.response.forwarder.ForwarderProperties.DEFAULT_BATCH_MAX_KB;
+import static org.labkey.response.forwarder.ForwarderProperties.DEFAULT_MAX_IN_FLIGHT;
 import static org.labkey.response.forwarder.ForwarderProperties.FORWARDING_TYPE;
+import static org.labkey.response.forwarder.ForwarderProperties.MAX_BATCH_MAX_KB;
+import static org.labkey.response.forwarder.ForwarderProperties.MAX_BATCH_SIZE;
+import static org.labkey.response.forwarder.ForwarderProperties.MAX_IN_FLIGHT;
+import static org.labkey.response.forwarder.ForwarderProperties.MAX_MAX_IN_FLIGHT;
 import static org.labkey.response.forwarder.ForwarderProperties.OAUTH_URL;
 import static org.labkey.response.forwarder.ForwarderProperties.PASSWORD_PROPERTY_NAME;
+import static org.labkey.response.forwarder.ForwarderProperties.PRESERVE_PARTICIPANT_ORDER;
 import static org.labkey.response.forwarder.ForwarderProperties.TOKEN_FIELD;
 import static org.labkey.response.forwarder.ForwarderProperties.TOKEN_HEADER;
 import static org.labkey.response.forwarder.ForwarderProperties.TOKEN_REQUEST_URL;
@@ -73,6 +83,7 @@ public enum ForwardingType implements SafeToRenderEnum
                         errors.rejectValue("tokenRequestURL", ERROR_MSG, "Token request URL is malformed");
                     }
 
+                    validateDeliveryOptions(form, errors);
                 }
 
                 @Override
@@ -85,6 +96,7 @@ public enum ForwardingType implements SafeToRenderEnum
                     propertyMap.put(TOKEN_HEADER, form.getHeader());
                     propertyMap.put(OAUTH_URL, form.getOauthURL());
                     propertyMap.put(FORWARDING_TYPE, form.getForwardingType().name());
+                    putDeliveryOptions(form, propertyMap);
 
                     new ForwarderProperties().setForwarderProperties(container, propertyMap);
                 }
@@ -116,6 +128,8 @@ public enum ForwardingType implements SafeToRenderEnum
                         errors.rejectValue("username", ERROR_REQUIRED, "Field cannot be blank.");
                     if ( StringUtils.isBlank(form.getPassword()))
                         errors.rejectValue("password", ERROR_REQUIRED, "Field cannot be blank.");
+
+                    validateDeliveryOptions(form, errors);
                 }
 
 
@@ -127,6 +141,7 @@ public enum ForwardingType implements SafeToRenderEnum
                     propertyMap.put(PASSWORD_PROPERTY_NAME, form.getPassword());
                     propertyMap.put(URL_PROPERTY_NAME, form.getBasicURL());
                     propertyMap.put(FORWARDING_TYPE, form.getForwardingType().name());
+                    putDeliveryOptions(form, propertyMap);
 
                     new ForwarderProperties().setForwarderProperties(container, propertyMap);
                 }
@@ -141,4 +156,31 @@ public enum ForwardingType implements SafeToRenderEnum
     public abstract void validateConfig(ResponseController.ForwardingSettingsForm form, Errors errors);
     public abstract void setForwardingProperties(Container container, ResponseController.ForwardingSettingsForm form);
     public abstract Forwarder getForwarder(Container container, Logger logger);
+
+    /**
+     * Validate the settings that control how responses are delivered, shared by all enabled forwarding types
+     */
+    private static void validateDeliveryOptions(ResponseController.ForwardingSettingsForm form, Errors errors)
+    {
+        Integer maxInFlight = form.getMaxInFlight();
+        if (maxInFlight != null && (maxInFlight < 1 || maxInFlight > MAX_MAX_IN_FLIGHT))
+            errors.rejectValue("maxInFlight", ERROR_MSG, String.format("Concurrent requests must be between 1 and %1$s.", MAX_MAX_IN_FLIGHT));
+
+        Integer batchSize = form.getBatchSize();
+        if (batchSize != null && (batchSize < 0 || batchSize > MAX_BATCH_SIZE))
+            errors.rejectValue("batchSize", ERROR_MSG, String.format("Batch size must be between 0 and %1$s.", MAX_BATCH_SIZE));
+
+        Integer batchMaxKB = form.getBatchMaxKB();
+        if (batchMaxKB != null && (batchMaxKB < 1 || batchMaxKB > MAX_BATCH_MAX_KB))
+            errors.rejectValue("batchMaxKB", ERROR_MSG, String.format("Maximum batch size must be between 1 and %1$s KB.", MAX_BATCH_MAX_KB));
+    }
+
+    private static void putDeliveryOptions(ResponseController.ForwardingSettingsForm form, Map<String, String> propertyMap)
+    {
+        propertyMap.put(MAX_IN_FLIGHT, String.valueOf(form.getMaxInFlight() != null ? form.getMaxInFlight() : DEFAULT_MAX_IN_FLIGHT));
+        propertyMap.put(PRESERVE_PARTICIPANT_ORDER, String.valueOf(form.isPreserveParticipantOrder()));
+        propertyMap.put(BATCH_SIZE, String.valueOf(form.getBatchSize() != null ? form.getBatchSize() : 0));
+        propertyMap.put(BATCH_MAX_KB, String.valueOf(form.getBatchMaxKB() != null ? form.getBatchMaxKB() : DEFAULT_BATCH_MAX_KB));
+        propertyMap.put(COMPRESS_REQUESTS, String.valueOf(form.isCompressRequests()));
+    }
 }
@@ -0,0 +1,639 @@
+package org.labkey.response.forwarder;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.RollingFileAppender;
+import org.apache.logging.log4j.core.appender.rolling.DefaultRolloverStrategy;
+import org.apache.logging.log4j.core.appender.rolling.SizeBasedTriggeringPolicy;
+import org.apache.logging.log4j.core.config.AbstractConfiguration;
+import org.apache.logging.log4j.core.config.AppenderRef;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.PropertyManager;
+import org.labkey.api.pipeline.PipeRoot;
+import org.labkey.api.pipeline.PipelineService;
+import org.labkey.api.security.LimitedUser;
+import org.labkey.api.security.PrincipalType;
+import org.labkey.api.security.User;
+import org.labkey.api.security.roles.ReaderRole;
+import org.labkey.response.ResponseManager;
+import org.labkey.response.data.SurveyResponse;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Forwards a container's responses. There is one worker per forwarding-enabled container, kept by
+ * {@link ForwardingScheduler} for as long as forwarding stays enabled, and each scheduled run reuses it. Runs append
+ * to a single size-capped, rolling log under the container's pipeline root, and the outcome of the latest run is kept
+ * in one status entry in the container's properties, so neither grows with the number of runs.
+ */
+class ForwardingWorker
+{
+    private static final Logger LOG = LogManager.getLogger(ForwardingWorker.class);
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String LOG_FILE_NAME = "surveyResponseForwarder.log";
+    private static final String MAX_LOG_FILE_SIZE = "10MB";
+    private static final int MAX_LOG_FILES = 3;
+
+    private static final String STATUS_CATEGORY = "MobileAppForwarderStatus";
+    private static final String STATUS = "Status";
+    private static final String STARTED = "Started";
+    private static final String FINISHED = "Finished";
+    private static final String FORWARDED = "Forwarded";
+    private static final String FAILED = "Failed";
+    private static final String HELD = "Held";
+    private static final String MESSAGE = "Message";
+
+    private enum Status
+    {
+        Running,
+        Complete,
+        Error
+    }
+
+    // Private service user
+    private static User forwardingUser;
+    private static synchronized User getForwardingUser()
+    {
+        if (forwardingUser == null)
+        {
+            forwardingUser = new LimitedUser(User.getSearchUser(), ReaderRole.class);
+            forwardingUser.setPrincipalType(PrincipalType.SERVICE);
+        }
+        return forwardingUser;
+    }
+
+    private final Container _container;
+    private final String _loggerName;
+    private Logger _log = null;
+
+    ForwardingWorker(@NotNull Container container)
+    {
+        _container = container;
+        _loggerName = ForwardingWorker.class.getName() + "." + container.getId();
+    }
+
+    /**
+     * Forward the container's responses, if forwarding is enabled and there's anything to send
+     * @return true if responses were left behind that should be retried
+     */
+    boolean run()
+    {
+        if (!validateRun())
+            return false;
+
+        try
+        {
+            return runForwarding();
+        }
+        finally
+        {
+            // Runs that end without an outcome, e.g., with nothing to send, mustn't leave a half-open trial pending
+            ForwardingCircuitBreaker.get().endTrial(_container);
+        }
+    }
+
+    private boolean runForwarding()
+    {
+        Logger log = getLog();
+        Map<Outcome, Integer> counts = new EnumMap<>(Outcome.class);
+        saveStatus(Status.Running, null, counts, null);
+        try
+        {
+            return forward(log, counts);
+        }
+        catch (RuntimeException e)
+        {
+            log.error("Forwarding failed: " + e.getLocalizedMessage(), e);
+            saveStatus(Status.Error, new Date(), counts, e.getLocalizedMessage());
+            ForwardingCircuitBreaker.get().recordFailure(_container, e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private boolean validateRun()
+    {
+        String msg = null;
+
+        // Forwarding may have been disabled since this run was scheduled
+        if (!ForwardingScheduler.get().forwardingIsEnabled(_container))
+        {
+            msg = String.format("Forwarding not enabled for container [%1$s].", _container.getName());
+        }
+        // Check if anything to process
+        else if (!ResponseManager.get().hasResponsesToForward(_container))
+        {
+            msg = String.format("No responses to forward for [%1$s]", _container.getName());
+        }
+        // Check if the endpoint has been failing. Done last, as this starts the trial run of a half-open circuit.
+        else if (!ForwardingCircuitBreaker.get().allowRequest(_container))
+        {
+            msg = String.format("Not forwarding survey responses for container [%1$s] because forwarding is paused after recent failures.", _container.getName());
+        }
+
+        if (StringUtils.isNotBlank(msg))
+        {
+            LOG.debug(msg);
+            return false;
+        }
+        else
+            return true;
+    }
+
+    private boolean forward(Logger log, Map<Outcome, Integer> counts)
+    {
+        Forwarder forwarder = ForwarderProperties.getForwardingType(_container).getForwarder(_container, log);
+        if (forwarder == null)
+        {
+            log.info("Forwarding not enabled. Please verify configuration for this container.");
+            saveStatus(Status.Error, new Date(), counts, "Forwarding is not configured");
+            return false;
+        }
+
+        forwarder.markDeliveredResponses(getForwardingUser());
+
+        // Responses are read a page at a time, without their data, which is fetched one response at a time as it's
+        // forwarded. Responses waiting for a scheduled retry, or parked after too many failures, are left out.
+        boolean preserveOrder = forwarder.isParticipantOrderPreserved();
+        List<SurveyResponse> page = getPage(preserveOrder, 0);
+        if (page.isEmpty())
+        {
+            log.info("No responses to forward");
+            saveStatus(Status.Complete, new Date(), counts, null);
+            return false;
+        }
+
+        String url = forwarder.getForwardingEndpoint();
+        ForwardingRun run = new ForwardingRun(forwarder);
+        log.debug(String.format("Forwarding responses to: %1$s, up to %2$s request(s) at a time%3$s", url, forwarder.getMaxInFlight(),
+                forwarder.getBatchSize() > 0 ? String.format(", in batches of up to %1$s", forwarder.getBatchSize()) : ""));
+
+        try
+        {
+            while (!page.isEmpty())
+            {
+                // Look up the page's enrollment tokens together rather than one response at a time
+                Map<Integer, String> tokens = ResponseManager.get().getEnrollmentTokens(_container,
+                        page.stream().map(SurveyResponse::getParticipantId).collect(Collectors.toSet()));
+                for (SurveyResponse response : page)
+                    run.add(response, tokens.get(response.getParticipantId()));
+
+                run.prune();
+                page = page.size() < PAGE_SIZE ? List.of() : getPage(preserveOrder, page.get(page.size() - 1).getRowId());
+            }
+
+            run.finish();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            log.error("Forwarding interrupted. Responses not yet forwarded will be sent by the next forwarding run.");
+            run.getCounts(counts);
+            saveStatus(Status.Error, new Date(), counts, "Interrupted");
+            return true;
+        }
+
+        run.getCounts(counts);
+        int forwarded = counts.get(Outcome.Forwarded);
+        int failed = counts.get(Outcome.Failed);
+        int held = counts.get(Outcome.Held);
+        log.info(String.format("Forwarding completed. %1$s response(s) sent to %2$s.", forwarded, url));
+
+        // Pause forwarding only if nothing got through; a few rejected responses don't mean the endpoint is down
+        if (forwarded > 0 || failed == 0)
+            ForwardingCircuitBreaker.get().recordSuccess(_container);
+        else
+            ResponseManager.get().setForwardingJobUnsucessful(_container, String.format("None of %1$s response(s) could be forwarded to %2$s. See the forwarding log for details.", failed, url));
+
+        if (failed > 0)
+        {
+            String message = String.format("%1$s response(s) failed to forward and %2$s later response(s) from the same participants were held back. Each failed response will be retried when its next attempt is due.", failed, held);
+            log.error(message);
+            saveStatus(Status.Error, new Date(), counts, message);
+        }
+        else
+            saveStatus(Status.Complete, new Date(), counts, null);
+
+        return failed > 0 || held > 0;
+    }
+
+    private List<SurveyResponse> getPage(boolean preserveOrder, int afterRowId)
+    {
+        return ResponseManager.get().getResponsesToForward(_container, preserveOrder, afterRowId, PAGE_SIZE);
+    }
+
+    /**
+     * Get the container's forwarding log, writing to the rolling log file under its pipeline root. Falls back to the
+     * server log if the container has no usable pipeline root.
+     */
+    private synchronized Logger getLog()
+    {
+        if (_log == null)
+        {
+            PipeRoot root = PipelineService.get().findPipelineRoot(_container);
+            if (null == root || !root.isValid())
+            {
+                LOG.warn(String.format("No valid pipeline root for container [%1$s]; response forwarding will be logged to the server log.", _container.getName()));
+                _log = LOG;
+            }
+            else
+                _log = createRollingLog(new File(root.getLogDirectory(), LOG_FILE_NAME));
+        }
+        return _log;
+    }
+
+    private Logger createRollingLog(File logFile)
+    {
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        Configuration config = context.getConfiguration();
+
+        Appender appender = RollingFileAppender.newBuilder()
+            .setName(_loggerName)
+            .withFileName(logFile.getPath())
+            .withFilePattern(logFile.getPath() + ".%i")
+            .withPolicy(SizeBasedTriggeringPolicy.createPolicy(MAX_LOG_FILE_SIZE))
+            .withStrategy(DefaultRolloverStrategy.newBuilder().withMax(String.valueOf(MAX_LOG_FILES)).withConfig(config).build())
+            .setLayout(PatternLayout.newBuilder().withPattern("%d{DATE} %-5level: %msg%n%throwable").withConfiguration(config).build())
+            .setConfiguration(config)
+            .build();
+        appender.start();
+        config.addAppender(appender);
+
+        AppenderRef[] refs = { AppenderRef.createAppenderRef(_loggerName, null, null) };
+        LoggerConfig loggerConfig = LoggerConfig.createLogger(false, Level.DEBUG, _loggerName, "false", refs, null, config, null);
+        loggerConfig.addAppender(appender, null, null);
+        config.addLogger(_loggerName, loggerConfig);
+        context.updateLoggers();
+
+        return context.getLogger(_loggerName);
+    }
+
+    /**
+     * Release the rolling log, removing its logger and appender from the Log4j configuration, e.g., because forwarding
+     * has been disabled for the container or it has been deleted
+     */
+    synchronized void close()
+    {
+        if (_log == null || _log == LOG)
+        {
+            _log = null;
+            return;
+        }
+
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        Configuration config = context.getConfiguration();
+        config.removeLogger(_loggerName);
+        Appender appender = config.getAppenders().get(_loggerName);
+        if (appender != null)
+        {
+            appender.stop();
+            ((AbstractConfiguration) config).removeAppender(_loggerName);
+        }
+        context.updateLoggers();
+        _log = null;
+    }
+
+    private void saveStatus(Status status, @Nullable Date finished, Map<Outcome, Integer> counts, @Nullable String message)
+    {
+        PropertyManager.PropertyMap map = PropertyManager.getWritableProperties(_container, STATUS_CATEGORY, true);
+        map.put(STATUS, status.name());
+        if (status == Status.Running)
+            map.put(STARTED, String.valueOf(System.currentTimeMillis()));
+        map.put(FINISHED, finished == null ? null : String.valueOf(finished.getTime()));
+        map.put(FORWARDED, String.valueOf(counts.getOrDefault(Outcome.Forwarded, 0)));
+        map.put(FAILED, String.valueOf(counts.getOrDefault(Outcome.Failed, 0)));
+        map.put(HELD, String.valueOf(counts.getOrDefault(Outcome.Held, 0)));
+        map.put(MESSAGE, StringUtils.abbreviate(message, 1000));
+        map.save();
+    }
+
+    /**
+     * Outcome of the container's most recent forwarding run, or an empty map if it has never run
+     */
+    @NotNull
+    static Map<String, Object> getLastRun(@NotNull Container c)
+    {
+        Map<String, String> saved = PropertyManager.getProperties(c, STATUS_CATEGORY);
+        Map<String, Object> lastRun = new LinkedHashMap<>();
+        if (saved.containsKey(STATUS))
+        {
+            lastRun.put("status", saved.get(STATUS));
+            lastRun.put("started", toDate(saved.get(STARTED)));
+            lastRun.put("finished", toDate(saved.get(FINISHED)));
+            lastRun.put("forwarded", toInt(saved.get(FORWARDED)));
+            lastRun.put("failed", toInt(saved.get(FAILED)));
+            lastRun.put("held", toInt(saved.get(HELD)));
+            lastRun.put("message", saved.get(MESSAGE));
+        }
+        return lastRun;
+    }
+
+    @Nullable
+    private static Date toDate(@Nullable String millis)
+    {
+        return StringUtils.isNumeric(millis) ? new Date(Long.parseLong(millis)) : null;
+    }
+
+    private static int toInt(@Nullable String value)
+    {
+        return StringUtils.isNumeric(value) ? Integer.parseInt(value) : 0;
+    }
+
+    private enum Outcome
+    {
+        Forwarded,
+        Failed,
+        Held       // not sent because an earlier response from the same participant failed
+    }
+
+    /**
+     * Packs responses into requests and keeps up to the forwarder's in-flight limit of them outstanding. When
+     * participant order is preserved, a response from a participant whose earlier request is still outstanding (or
+     * didn't get through) goes into a request of that participant's own, which isn't sent until the earlier request has
+     * been accepted, so one participant's failure never holds back anyone else's responses. A request only takes an
+     * in-flight slot once it's actually sent; requests waiting on an earlier one are queued and sent by the run's thread
+     * as soon as it completes. Since a queued request's payloads are already loaded, no more than the in-flight limit of
+     * them are waiting at once: adding responses blocks until one is sent or held back.
+     */
+    private static class ForwardingRun
+    {
+        private final Forwarder _forwarder;
+        private final boolean _preserveOrder;
+        private final int _batchSize;
+        private final int _maxBatchLength;
+        private final Semaphore _inFlight;
+        private final Map<Outcome, AtomicInteger> _outcomes = new EnumMap<>(Outcome.class);
+        // Most recent request for each participant, used to chain their responses when order matters
+        private final Map<Integer, CompletableFuture<Outcome>> _participantTails = new HashMap<>();
+        // Requests being filled for participants that must wait on an earlier request
+        private final Map<Integer, ForwardingBatch> _participantBatches = new LinkedHashMap<>();
+        // Requests whose earlier requests have been accepted, waiting for the run's thread to send them
+        private final BlockingQueue<ReadyBatch> _ready = new LinkedBlockingQueue<>();
+        private final List<CompletableFuture<Outcome>> _outstanding = new ArrayList<>();
+        // Queued to wake up the run's thread while it waits on _ready, e.g., once every outstanding request has completed
+        private final ReadyBatch _wake = new ReadyBatch(null, null);
+        // Chained requests not yet completed; their payloads are already loaded, so they're capped like sends are
+        private final Semaphore _chained;
+        private ForwardingBatch _batch = null;
+
+        private ForwardingRun(Forwarder forwarder)
+        {
+            _forwarder = forwarder;
+            _preserveOrder = forwarder.isParticipantOrderPreserved();
+            _batchSize = forwarder.getBatchSize();
+            _maxBatchLength = forwarder.getMaxBatchLength();
+            _inFlight = new Semaphore(forwarder.getMaxInFlight());
+            _chained = new Semaphore(forwarder.getMaxInFlight());
+            for (Outcome outcome : Outcome.values())
+                _outcomes.put(outcome, new AtomicInteger());
+        }
+
+        private void add(SurveyResponse response, @Nullable String token) throws InterruptedException
+        {
+            sendReady();
+
+            // Already delivered by an earlier request, only its status update is outstanding
+            if (Forwarder.isDeliveredUnmarked(response.getRowId()))
+                return;
+
+            Integer participantId = response.getParticipantId();
+            CompletableFuture<Outcome> tail = _preserveOrder ? _participantTails.get(participantId) : null;
+            Outcome previous = null == tail ? null : tail.getNow(null);
+            if (null != previous && previous != Outcome.Forwarded && !_participantBatches.containsKey(participantId))
+            {
+                // An earlier response didn't get through, so this one waits for the next run
+                _outcomes.get(Outcome.Held).incrementAndGet();
+                return;
+            }
+
+            List<byte[]> envelope = _forwarder.getEnvelope(response, token);
+            if (_participantBatches.containsKey(participantId) || (null != tail && null == previous))
+            {
+                ForwardingBatch batch = _participantBatches.get(participantId);
+                if (null != batch && !fits(batch, envelope))
+                {
+                    dispatch(batch);
+                    batch = null;
+                }
+                if (null == batch)
+                {
+                    batch = new ForwardingBatch(_batchSize > 0);
+                    _participantBatches.put(participantId, batch);
+                }
+                batch.add(response, envelope);
+                if (isFull(batch))
+                {
+                    _participantBatches.remove(participantId);
+                    dispatch(batch);
+                }
+                return;
+            }
+
+            if (null != _batch && !fits(_batch, envelope))
+                dispatchShared();
+
+            if (null == _batch)
+                _batch = new ForwardingBatch(_batchSize > 0);
+            _batch.add(response, envelope);
+
+            if (isFull(_batch))
+                dispatchShared();
+        }
+
+        private boolean fits(ForwardingBatch batch, List<byte[]> envelope)
+        {
+            return batch.length() + ForwardingBatch.length(envelope) <= _maxBatchLength;
+        }
+
+        private boolean isFull(ForwardingBatch batch)
+        {
+            return batch.size() >= Math.max(1, _batchSize);
+        }
+
+        private void dispatchShared() throws InterruptedException
+        {
+            ForwardingBatch batch = _batch;
+            _batch = null;
+            dispatch(batch);
+        }
+
+        private void dispatch(ForwardingBatch batch) throws InterruptedException
+        {
+            List<CompletableFuture<Outcome>> previous = new ArrayList<>();
+            if (_preserveOrder)
+            {
+                batch.getResponses().stream()
+                    .map(response -> _participantTails.get(response.getParticipantId()))
+                    .filter(f -> null != f && f.getNow(null) != Outcome.Forwarded)
+                    .distinct()
+                    .forEach(previous::add);
+            }
+
+            CompletableFuture<Outcome> future;
+            if (previous.isEmpty())
+            {
+                future = send(batch);
+            }
+            else
+            {
+                // Queue the request to be sent once its participant's earlier requests are accepted, or hold it back
+                // until the next run if one of them didn't get through
+                acquireChainedSlot();
+                CompletableFuture<Outcome> chained = new CompletableFuture<>();
+                chained.whenComplete((o, t) -> {
+                    _chained.release();
+                    _ready.add(_wake);
+                });
+                CompletableFuture.allOf(previous.toArray(new CompletableFuture[0])).whenComplete((v, t) -> {
+                    if (previous.stream().allMatch(f -> f.getNow(null) == Outcome.Forwarded))
+                        _ready.add(new ReadyBatch(batch, chained));
+                    else
+                        chained.complete(Outcome.Held);
+                });
+                future = chained;
+            }
+
+            future.whenComplete((o, t) -> _outcomes.get(null == o ? Outcome.Failed : o).addAndGet(batch.size()));
+            _outstanding.add(future);
+
+            if (_preserveOrder)
+                batch.getResponses().forEach(response -> _participantTails.put(response.getParticipantId(), future));
+        }
+
+        /**
+         * Send a request, waiting for an in-flight slot first
+         */
+        private CompletableFuture<Outcome> send(ForwardingBatch batch) throws InterruptedException
+        {
+            _inFlight.acquire();
+            try
+            {
+                CompletableFuture<Outcome> future = _forwarder.forwardAsync(getForwardingUser(), batch).thenApply(sent -> sent ? Outcome.Forwarded : Outcome.Failed);
+                future.whenComplete((o, t) -> _inFlight.release());
+                return future;
+            }
+            catch (RuntimeException e)
+            {
+                _inFlight.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Wait until fewer than the in-flight limit of chained requests are outstanding, sending queued requests as they
+         * become ready, since those are what free up slots
+         */
+        private void acquireChainedSlot() throws InterruptedException
+        {
+            while (!_chained.tryAcquire())
+            {
+                ReadyBatch ready = _ready.take();
+                if (ready != _wake)
+                    ready.send();
+            }
+        }
+
+        /**
+         * Send any queued requests whose earlier requests have been accepted
+         */
+        private void sendReady() throws InterruptedException
+        {
+            ReadyBatch ready;
+            while (null != (ready = _ready.poll()))
+            {
+                if (ready != _wake)
+                    ready.send();
+            }
+        }
+
+        /**
+         * Send the partial batches of participants waiting on an earlier request, so their payloads are held for no
+         * longer than a page, then forget participants whose latest request has gone through, as they no longer
+         * constrain anything
+         */
+        private void prune() throws InterruptedException
+        {
+            for (ForwardingBatch batch : _participantBatches.values())
+                dispatch(batch);
+            _participantBatches.clear();
+
+            _participantTails.values().removeIf(f -> f.getNow(null) == Outcome.Forwarded);
+            _outstanding.removeIf(CompletableFuture::isDone);
+        }
+
+        /**
+         * Send any partial batches and wait for all outstanding requests, sending queued ones as they become ready
+         */
+        private void finish() throws InterruptedException
+        {
+            if (null != _batch)
+                dispatchShared();
+            prune();
+
+            CompletableFuture<Void> all = CompletableFuture.allOf(_outstanding.toArray(new CompletableFuture[0]));
+            all.whenComplete((v, t) -> _ready.add(_wake));
+            while (!all.isDone())
+            {
+                ReadyBatch ready = _ready.take();
+                if (ready != _wake)
+                    ready.send();
+            }
+        }
+
+        private void getCounts(Map<Outcome, Integer> counts)
+        {
+            _outcomes.forEach((outcome, count) -> counts.put(outcome, count.get()));
+        }
+
+        private class ReadyBatch
+        {
+            private final ForwardingBatch _readyBatch;
+            private final CompletableFuture<Outcome> _result;
+
+            private ReadyBatch(ForwardingBatch batch, CompletableFuture<Outcome> result)
+            {
+                _readyBatch = batch;
+                _result = result;
+            }
+
+            private void send() throws InterruptedException
+            {
+                try
+                {
+                    ForwardingRun.this.send(_readyBatch).whenComplete((o, t) -> {
+                        if (null != t)
+                            _result.completeExceptionally(t);
+                        else
+                            _result.complete(o);
+                    });
+                }
+                catch (RuntimeException e)
+                {
+                    _result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -3,142 +3,235 @@ package org.labkey.response.forwarder;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.hc.client5.http.auth.AuthenticationException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
-import org.labkey.api.cache.Cache;
-import org.labkey.api.cache.CacheManager;
 import org.labkey.api.data.Container;
-import org.labkey.api.pipeline.PipelineJob;
-import org.labkey.api.security.User;
-import org.labkey.response.ResponseManager;
-import org.labkey.response.data.SurveyResponse;
 
 import java.io.IOException;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class OAuthForwarder extends Forwarder
 {
+    // Retries allowed after the endpoint rejects a token, each with a newly requested token
     private static final int MAX_RETRIES = 1;
-    private static final Cache<Container, String> authTokenCache =
-            CacheManager.getBlockingCache(100, TimeUnit.HOURS.toMillis(1), "Mobile app forwarding tokens",
-                    (key, args) -> requestNewAuthToken(key, LogManager.getLogger(OAuthForwarder.class)));
+    // Lifetime assumed when the token endpoint doesn't return expires_in
+    private static final long DEFAULT_TOKEN_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(1);
+    // Stop using a token this long before it expires, to allow for clock skew and requests in flight
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    // Fraction of a token's lifetime after which a replacement is requested in the background
+    private static final double REFRESH_AHEAD = 0.8;
+    // How long a failed token request is reused before another is attempted, so batches don't each start one
+    private static final long FAILURE_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final String DEFAULT_TOKEN_FIELD = "access_token";
+    private static final String EXPIRES_IN_FIELD = "expires_in";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Container id -> auth token state
+    private static final Map<String, TokenState> authTokens = new ConcurrentHashMap<>();
 
     public OAuthForwarder(Container container, Logger logger)
     {
         super(container, logger);
     }
 
-
     @Override
-    public PipelineJob.TaskStatus makeRequest(User user, SurveyResponse response) throws Exception
+    protected CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request)
     {
-        return makeRequest(user, response, 0);
+        return send(request, 0);
     }
 
-    private PipelineJob.TaskStatus makeRequest(User user, SurveyResponse response, int attempts) throws Exception
+    private CompletableFuture<HttpResponse<String>> send(HttpRequest.Builder request, int retries)
     {
-        if (attempts >= MAX_RETRIES)
-            return handleError("Exceeded max retry attempts");
+        return getAuthToken(container).thenCompose(authToken -> {
+            HttpRequest req = request.copy()
+                    .header(properties.get(ForwarderProperties.TOKEN_HEADER), "Bearer " + authToken)
+                    .build();
 
-        String authToken = authTokenCache.get(container);
-        if (StringUtils.isBlank(authToken))
-        {
-            return handleError("Unable to obtain auth token.");
-        }
+            return getClient().sendAsync(req, HttpResponse.BodyHandlers.ofString()).thenCompose(httpResponse -> {
+                if (!retryForwarding(httpResponse.statusCode()))
+                    return CompletableFuture.completedFuture(httpResponse);
+
+                if (retries >= MAX_RETRIES)
+                {
+                    logger.warn(String.format("Request was still unauthorized after %1$s retry(s) with a new auth token.", retries));
+                    return CompletableFuture.completedFuture(httpResponse);
+                }
+
+                logger.debug("Request was unauthorized. Clearing token, and attempting retry.");
+                invalidateAuthToken(container, authToken);
+                return send(request, retries + 1);
+            });
+        });
+    }
 
+    private boolean retryForwarding(int statusCode)
+    {
+        return statusCode == 401; //Unauthorized implies token is invalid/expired, so retry after getting new auth token
+    }
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(getForwardingEndpoint()))
-                .header(properties.get(ForwarderProperties.TOKEN_HEADER), "Bearer " + authToken)
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(getRequestBody(response)))
-                .build();
+    @Override
+    public String getForwardingEndpoint()
+    {
+        return properties.get(ForwarderProperties.OAUTH_URL);
+    }
 
-        var httpResponse = getClient().send(req, HttpResponse.BodyHandlers.ofString());
-        int statusCode = httpResponse.statusCode();
+    /**
+     * Forget a container's auth token, e.g., because its forwarding configuration has changed
+     */
+    public static void clearAuthToken(@NotNull Container container)
+    {
+        authTokens.remove(container.getId());
+    }
 
-        if (retryForwarding(statusCode))
-        {
-            authTokenCache.remove(container);
-            logger.debug("Request was unauthorized. Clearing token, and attempting retry.");
-            return makeRequest(user, response, attempts + 1);
-        }
-        else if (statusCode < 200 || 300 < statusCode)
-        {
-            return handleError(String.format("Stopping forwarding job. ResponseId [%1$s] received error response %2$s:\n%3$s", response.getRowId(), httpResponse.statusCode(), httpResponse.body()));
-        }
-        else
+    /**
+     * Get a valid auth token for the container. A token nearing expiry is still handed out while its replacement is
+     * requested in the background, so forwarding doesn't wait on token rollover. Concurrent callers share a single
+     * token request, and a failed request is shared by callers for a short while before another is made.
+     */
+    private static CompletableFuture<String> getAuthToken(@NotNull Container container)
+    {
+        TokenState state = authTokens.computeIfAbsent(container.getId(), id -> new TokenState());
+        synchronized (state)
         {
-            logger.info(String.format("Successfully forwarded response [%1$s].", response.getRowId()));
-            ResponseManager.get().updateProcessingStatus(user, response.getRowId(), SurveyResponse.ResponseStatus.FORWARDED);
-            return PipelineJob.TaskStatus.running;
+            long now = System.currentTimeMillis();
+            AuthToken token = state._token;
+            if (token != null && now < token._expiresAt)
+            {
+                if (now >= token._refreshAt)
+                    refresh(state, container);
+                return CompletableFuture.completedFuture(token._value);
+            }
+
+            return refresh(state, container).thenApply(t -> t._value);
         }
     }
 
-    private boolean retryForwarding(int statusCode)
+    /**
+     * Start a token request unless one is already in flight, or one failed within the last {@link #FAILURE_BACKOFF_MILLIS},
+     * in which case that failure is returned. Caller must hold the state's lock.
+     */
+    private static CompletableFuture<AuthToken> refresh(TokenState state, Container container)
     {
-        return statusCode == 401; //Unauthorized implies token is invalid/expired, so retry after getting new auth token
-    }
+        CompletableFuture<AuthToken> refresh = state._refresh;
+        if (refresh == null && state._failed != null && System.currentTimeMillis() < state._failedUntil)
+            return state._failed;
 
-    protected HttpClient getClient()
-    {
-        if (client == null)
+        if (refresh == null)
         {
-            client = HttpClient.newBuilder()
-                    .build();
+            refresh = requestNewAuthToken(container, LogManager.getLogger(OAuthForwarder.class));
+            state._refresh = refresh;
+            CompletableFuture<AuthToken> request = refresh;
+            refresh.whenComplete((token, t) -> {
+                synchronized (state)
+                {
+                    if (token != null)
+                    {
+                        state._token = token;
+                        state._failed = null;
+                    }
+                    else
+                    {
+                        state._failed = request;
+                        state._failedUntil = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+                    }
+                    state._refresh = null;
+                }
+            });
         }
-
-        return client;
+        return refresh;
     }
 
-    @Override
-    public String getForwardingEndpoint()
+    /**
+     * Discard a token the endpoint has rejected, unless it has already been replaced
+     */
+    private static void invalidateAuthToken(@NotNull Container container, @NotNull String rejected)
     {
-        return properties.get(ForwarderProperties.OAUTH_URL);
+        TokenState state = authTokens.get(container.getId());
+        if (state == null)
+            return;
+
+        synchronized (state)
+        {
+            if (state._token != null && state._token._value.equals(rejected))
+                state._token = null;
+        }
     }
 
-    @Nullable
-    private static String requestNewAuthToken(@NotNull Container container, @NotNull Logger logger) //throws IOException, InterruptedException, AuthenticationException
+    private static CompletableFuture<AuthToken> requestNewAuthToken(@NotNull Container container, @NotNull Logger logger)
     {
         logger.info("Requesting new auth token.");
 
         Map<String, String> properties = new ForwarderProperties().getForwarderConnection(container);
 
-        HttpRequest req = HttpRequest.newBuilder()
-                .uri(URI.create(properties.get(ForwarderProperties.TOKEN_REQUEST_URL)))
+        URI tokenUri = URI.create(properties.get(ForwarderProperties.TOKEN_REQUEST_URL));
+        HttpRequest req = ForwardingClients.newRequest(tokenUri)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.noBody())
                 .build();
 
-        try
-        {
-            var httpResponse = HttpClient.newBuilder().build().send(req, HttpResponse.BodyHandlers.ofString());
-            int statusCode = httpResponse.statusCode();
-
-            if (statusCode < 200 || 300 < statusCode)
-            {
-                ResponseManager.get().setForwardingJobUnsucessful(container);
-                throw new AuthenticationException(String.format("Unable to obtain new authentication token. Token request status code [%1$s]. Please check forwarding configuration.", statusCode));
-            }
+        long requested = System.currentTimeMillis();
+        return ForwardingClients.getClient(tokenUri).sendAsync(req, HttpResponse.BodyHandlers.ofString())
+            .thenApply(httpResponse -> {
+                int statusCode = httpResponse.statusCode();
+                try
+                {
+                    if (statusCode < 200 || 300 <= statusCode)
+                        throw new AuthenticationException(String.format("Unable to obtain new authentication token. Token request status code [%1$s]. Please check forwarding configuration.", statusCode));
+
+                    Map<String, Object> jsonMap = MAPPER.readValue(httpResponse.body(), new TypeReference<Map<String, Object>>() {});
+                    Object value = jsonMap.get(StringUtils.defaultIfBlank(properties.get(ForwarderProperties.TOKEN_FIELD), DEFAULT_TOKEN_FIELD));
+                    if (value == null || StringUtils.isBlank(value.toString()))
+                        throw new AuthenticationException("Token response did not include a token. Please check forwarding configuration.");
+
+                    Object expiresIn = jsonMap.get(EXPIRES_IN_FIELD);
+                    long lifetime = expiresIn == null ? DEFAULT_TOKEN_LIFETIME_MILLIS : TimeUnit.SECONDS.toMillis(NumberUtils.toLong(expiresIn.toString(), TimeUnit.MILLISECONDS.toSeconds(DEFAULT_TOKEN_LIFETIME_MILLIS)));
+                    logger.info(String.format("Successfully obtained new auth token, valid for %1$s seconds.", TimeUnit.MILLISECONDS.toSeconds(lifetime)));
+                    return new AuthToken(value.toString(), requested, lifetime);
+                }
+                catch (IOException | AuthenticationException e)
+                {
+                    throw new CompletionException(e);
+                }
+            })
+            .whenComplete((token, t) -> {
+                if (t != null)
+                {
+                    Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+                    logger.error(String.format("Unable to obtain new auth token for container [%1$s]. Error message: %2$s ", container.getName(), cause.getMessage()), cause);
+                }
+            });
+    }
 
-            logger.info("Successfully obtained new auth token.");
-            ObjectMapper mapper = new ObjectMapper();
-            Map<String, String> jsonMap = mapper.readValue(httpResponse.body(), new TypeReference<Map<String, String>>() {});
+    private static class AuthToken
+    {
+        private final String _value;
+        private final long _expiresAt;
+        private final long _refreshAt;
 
-            return jsonMap.getOrDefault(properties.get(ForwarderProperties.TOKEN_FIELD), "");
-        }
-        catch (IOException | InterruptedException | AuthenticationException e)
+        private AuthToken(String value, long issued, long lifetime)
         {
-            logger.error(String.format("Unable to obtain new auth token for container [%1$s]. Error message: %2$s ", container.getName(), e.getMessage()), e);
-            return null;
+            _value = value;
+            _expiresAt = issued + Math.max(0, lifetime - EXPIRY_MARGIN_MILLIS);
+            _refreshAt = issued + (long) (lifetime * REFRESH_AHEAD);
         }
     }
+
+    private static class TokenState
+    {
+        private AuthToken _token = null;
+        private CompletableFuture<AuthToken> _refresh = null;
+        // Most recent failed token request, and until when it's reused
+        private CompletableFuture<AuthToken> _failed = null;
+        private long _failedUntil = 0;
+    }
 }
@@ -1,4 +1,5 @@
 <%@ page import="org.apache.commons.lang3.StringUtils" %>
+<%@ page import="org.labkey.api.action.SpringActionController" %>
 <%@ page import="org.labkey.api.security.permissions.AdminPermission" %>
 <%@ page import="org.labkey.api.view.ActionURL" %>
 <%@ page import="org.labkey.api.view.HttpView" %>
@@ -10,7 +11,10 @@
 <%@ page import="org.labkey.response.ResponseManager" %>
 <%@ page import="org.labkey.response.data.MobileAppStudy" %>
 <%@ page import="org.labkey.response.forwarder.ForwarderProperties" %>
+<%@ page import="org.labkey.response.forwarder.ForwardingCircuitBreaker" %>
+<%@ page import="org.labkey.response.forwarder.ForwardingScheduler" %>
 <%@ page import="org.labkey.response.forwarder.ForwardingType" %>
+<%@ page import="java.util.Date" %>
 <%@ page import="java.util.Map" %>
 <%@ page extends="org.labkey.api.jsp.JspBase" %>
 <%@ taglib prefix="labkey" uri="http://www.labkey.org/taglib" %>
@@ -88,6 +92,14 @@
     String oauthTokenHeader= forwardingProperties.get(ForwarderProperties.TOKEN_HEADER);
     String oauthURL = forwardingProperties.get(ForwarderProperties.OAUTH_URL);
 
+    int maxInFlight = ForwarderProperties.getMaxInFlight(forwardingProperties);
+    boolean preserveParticipantOrder = ForwarderProperties.isParticipantOrderPreserved(forwardingProperties);
+    int batchSize = ForwarderProperties.getBatchSize(forwardingProperties);
+    int batchMaxKB = ForwarderProperties.getMaxBatchKilobytes(forwardingProperties);
+    boolean compressRequests = ForwarderProperties.isCompressed(forwardingProperties);
+    ForwardingCircuitBreaker.Circuit circuit = ForwardingCircuitBreaker.get().getCircuit(getContainer());
+    Map<String, Object> lastRun = ForwardingScheduler.get().getLastRun(getContainer());
+
     MobileAppStudy studySetupBean = ResponseManager.get().getStudy(getContainer());
     studySetupBean = studySetupBean != null ? studySetupBean : new MobileAppStudy();
     studySetupBean.setEditable(!ResponseManager.get().hasStudyParticipants(getContainer()));
@@ -124,6 +136,29 @@
 <labkey:panel title="Response Forwarding">
     <labkey:errors></labkey:errors>
 
+    <% if (authType != ForwardingType.Disabled) { %>
+    <div class="lk-forwarder-status">
+        <% if (circuit.getState() == ForwardingCircuitBreaker.State.Closed) { %>
+            Forwarding status: OK
+        <% } else { %>
+            Forwarding status: <strong>paused</strong> after <%=circuit.getFailures()%> consecutive failure(s).
+            <% if (circuit.getOpenUntil() != null) { %>
+                Next attempt after <%=formatDateTime(circuit.getOpenUntil())%>.
+            <% } else { %>
+                A trial attempt is in progress.
+            <% } %>
+            <% if (circuit.getLastError() != null) { %>
+                <br>Last error: <%=h(circuit.getLastError())%>
+            <% } %>
+            <br>Saving the forwarding settings resumes forwarding immediately.
+        <% } %>
+        <% if (lastRun.get("finished") != null) { %>
+            <br>Last run: <%=h(lastRun.get("status"))%> at <%=formatDateTime((Date) lastRun.get("finished"))%>,
+            <%=h(lastRun.get("forwarded"))%> response(s) forwarded, <%=h(lastRun.get("failed"))%> failed.
+        <% } %>
+    </div>
+    <% } %>
+
     <labkey:form name="mobileAppStudyForwardingSettingsForm" action="<%=new ActionURL(ForwardingSettingsAction.class, getContainer())%>" method="POST" >
         <div id="authTypeSelector" class=" form-group" >
             <label>
@@ -152,6 +187,21 @@
                 <labkey:input type="text" className=" form-control lk-forwarder-input" label="Header Name" name="header" value="<%=oauthTokenHeader%>" />
                 <labkey:input type="text" className=" form-control lk-forwarder-input lk-forwarder-url" label="Endpoint URL" name="oauthURL" value="<%=oauthURL%>" />
             </div>
+            <div id="deliveryPanel" class=" form-group">
+                <labkey:input type="number" className=" form-control lk-forwarder-input" label="Concurrent Requests" name="maxInFlight" value="<%=String.valueOf(maxInFlight)%>" />
+                <label>
+                    <input type="checkbox" name="preserveParticipantOrder"<%=checked(preserveParticipantOrder)%>/>
+                    Forward each participant's responses in submission order
+                </label>
+                <input type="hidden" name="<%=SpringActionController.FIELD_MARKER%>preserveParticipantOrder"/><br>
+                <labkey:input type="number" className=" form-control lk-forwarder-input" label="Responses per Request (0 = no batching)" name="batchSize" value="<%=String.valueOf(batchSize)%>" />
+                <labkey:input type="number" className=" form-control lk-forwarder-input" label="Maximum Batch Size (KB)" name="batchMaxKB" value="<%=String.valueOf(batchMaxKB)%>" />
+                <label>
+                    <input type="checkbox" name="compressRequests"<%=checked(compressRequests)%>/>
+                    Compress requests (gzip)
+                </label>
+                <input type="hidden" name="<%=SpringActionController.FIELD_MARKER%>compressRequests"/>
+            </div>
         </div>
         <div id="buttonBar">
             <button id="forwarderSubmitButton" type="submit" class="labkey-button primary" >Submit</button>
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.labkey.remoteapi.CommandException;
 import org.labkey.remoteapi.Connection;
+import org.labkey.remoteapi.SimpleGetCommand;
 import org.labkey.remoteapi.SimplePostCommand;
 import org.labkey.test.WebTestHelper;
 import org.labkey.test.categories.Git;
@@ -33,7 +34,6 @@ import org.labkey.test.mockserver.response.MockServerPostCallback;
 import org.labkey.test.pages.response.SetupPage;
 import org.labkey.test.pages.response.TokenListPage;
 import org.labkey.test.util.LogMethod;
-import org.labkey.test.util.PipelineStatusTable;
 import org.labkey.test.util.TestLogger;
 import org.mockserver.integration.ClientAndServer;
 import org.mockserver.model.HttpRequest;
@@ -43,6 +43,7 @@ import org.mockserver.verify.VerificationTimes;
 import org.openqa.selenium.support.ui.FluentWait;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Consumer;
@@ -70,7 +71,7 @@ public class ForwardResponseTest extends BaseResponseTest
 
     protected static ClientAndServer mockServer = null;
 
-    //Needs to match SurveyResponsePipelineJob.FORWARD_JSON_FORMAT
+    //Needs to match the envelope built by Forwarder.getEnvelope
     private static final String FORWARD_BODY_FORMAT = "{\"type\": \"SurveyResponse\", \"metadata\": {\"activityid\": \"%1$s\", \"version\": \"%2$s\"}, \"token\": \"%3$s\", \"data\": %4$s }";
 
     //Create study
@@ -88,7 +89,7 @@ public class ForwardResponseTest extends BaseResponseTest
     private final static String PROJECT_NAME05 = BASE_PROJECT_NAME + " " + STUDY_NAME05 + " BasicAuth";
     private static final String[] PROJECTS = new String[]{PROJECT_NAME01, PROJECT_NAME02, PROJECT_NAME03, PROJECT_NAME04, PROJECT_NAME05};
     private final static String SURVEY_NAME = "FakeForwardingSurvey";
-    private final static String FORWARDING_PIPELINE_JOB_FORMAT = "Survey Response forwarding for %1$s";
+    private final static int FORWARDING_WAIT = 60_000;
     private final static String MOCKSERVER_CALL_MATCHER_CLASS = MockServerPostCallback.class.getName();
 
 
@@ -263,40 +264,30 @@ public class ForwardResponseTest extends BaseResponseTest
         String myToken = tokenListPage.getToken(0);
 
         checkErrors();
-        PipelineStatusTable pst = goToDataPipeline();
+        Map<String, Object> previousRun = getLastForwardingRun(projectName);
 
         log("Testing successfully forwarding response");
         submitResponse(projectName, studyName, myToken);
 
-        String forwardingJobDescription = String.format(FORWARDING_PIPELINE_JOB_FORMAT, projectName);
-        //TODO: this may be flaky as Timer job may create one in the interim...
-        waitForPipelineJobsToComplete(1, forwardingJobDescription, false);
-        assertTrue("Forwarding job failed unexpectedly.", "Complete".equalsIgnoreCase(pst.getJobStatus(forwardingJobDescription)));
+        Map<String, Object> lastRun = waitForForwardingRun(projectName, previousRun);
+        assertEquals("Forwarding run failed unexpectedly.", "Complete", lastRun.get("status"));
+        assertEquals("Forwarded response count not as expected", 1, lastRun.get("forwarded"));
 
         HttpRequest req = getMockRequest(endpointPath, SURVEY_NAME, "1", myToken);
         mockServer.verify(req, VerificationTimes.once()); //Will throw an AssertionError if not found correct number of times.
-
-        log("Checking pipeline job log");
-        //TODO: this may be flaky as Timer job may create one in the interim...
-        pst.clickStatusLink(forwardingJobDescription);
-        assertTextPresent("Forwarding completed. 1 response(s) sent to");
     }
 
     private void testFailedForwardResponse(String project, String study) throws IOException
     {
         checkErrors();
-        PipelineStatusTable pst = goToDataPipeline();
+        Map<String, Object> previousRun = getLastForwardingRun(project);
 
         log("Testing failed forwarding of survey response");
         submitResponse(project, study, null);
 
-        String forwardingJobDescription = String.format(FORWARDING_PIPELINE_JOB_FORMAT, project);
-        waitForPipelineJobsToComplete(1, forwardingJobDescription, true);
-        assertTrue("Forwarding job Passed unexpectedly.", "Error".equalsIgnoreCase(pst.getJobStatus(forwardingJobDescription)));
-
-        log("Checking pipeline job log");
-        pst.clickStatusLink(forwardingJobDescription);
-        assertTextPresent("ERROR: Stopping forwarding job.");
+        Map<String, Object> lastRun = waitForForwardingRun(project, previousRun);
+        assertEquals("Forwarding run passed unexpectedly.", "Error", lastRun.get("status"));
+        assertEquals("Failed response count not as expected", 1, lastRun.get("failed"));
         checkExpectedErrors(1);
         disableForwarding(project); // Disable so that failed retries don't cause collateral failures
     }
@@ -312,8 +303,6 @@ public class ForwardResponseTest extends BaseResponseTest
         log("Testing forwarding of prior survey responses");
 
         checkErrors();
-        PipelineStatusTable pst = goToDataPipeline();
-        int oldCount = pst.getDataRowCount();
 
         log("Submitting responses prior to enabling forwarding");
         submitResponse(project, study, null);
@@ -321,31 +310,24 @@ public class ForwardResponseTest extends BaseResponseTest
         submitResponse(project, study, null);
         int responseCount = 3;
 
-        sleep(2000);  //Give pipeline job a chance to start processing
-        pst = goToDataPipeline();  //refresh page
-        int newCount = pst.getDataRowCount();
-        assertEquals("Unexpected new pipeline job", oldCount, newCount);
+        sleep(2000);  //Give forwarding a chance to start
+        assertTrue("Unexpected forwarding run", getLastForwardingRun(project).isEmpty());
         mockServer.verify(req, VerificationTimes.exactly(0));  //Will throw AssertionError if count doesn't match
 
-        assertEquals("Response forwarding pipeline job count not as expected", 0, pst.getDataRowCount()); //Allow delta of 1 in the event scheduled job runs
+        // Enabling forwarding catches up on the earlier responses right away
         enableOAuthForwarding(project, OAUTH_TOKEN_URL_PATH, OAUTH_TOKEN_FIELD, OAUTH_TOKEN_HEADER, OAUTH_ENDPOINT_PATH2);
-        pst = goToDataPipeline();
+        Map<String, Object> lastRun = waitForForwardingRun(project, Map.of());
+        assertEquals("Forwarding run failed unexpectedly.", "Complete", lastRun.get("status"));
 
         log("Submitting response to trigger forwarding now that it is enabled");
         submitResponse(project, study, null);
         responseCount++;
 
-        String forwardingJobDescription = String.format(FORWARDING_PIPELINE_JOB_FORMAT, project);
-        waitForPipelineJobsToComplete(1, forwardingJobDescription, false);
-        assertTrue("Forwarding job failed unexpectedly.", "Complete".equalsIgnoreCase(pst.getJobStatus(forwardingJobDescription)));
+        lastRun = waitForForwardingRun(project, lastRun);
+        assertEquals("Forwarding run failed unexpectedly.", "Complete", lastRun.get("status"));
 
         mockServer.verify(req, VerificationTimes.exactly(responseCount)); //Will throw an AssertionError if not found correct number of times.
 
-        log("Checking pipeline job log");
-        //TODO: this may be flaky as Timer job may create one in the interim...
-        pst.clickStatusLink(forwardingJobDescription);
-        assertTextPresent(String.format("Forwarding completed. %1$s response(s) sent to", responseCount));
-
         log("Clearing mockserver request logs");
         mockServer.clear(req);
 
@@ -354,18 +336,48 @@ public class ForwardResponseTest extends BaseResponseTest
         tab.disableForwarding();
         tab.submit();
 
-        goToProjectHome(project);
-        pst = goToDataPipeline();
-        oldCount = pst.getDataRowCount();
+        Map<String, Object> previousRun = getLastForwardingRun(project);
         submitResponse(project, study, null);
-        sleep(2000);  //Give pipeline job a chance to start processing
-        pst = goToDataPipeline();
-        newCount = pst.getDataRowCount();
+        sleep(2000);  //Give forwarding a chance to start
 
-        assertEquals("Unexpected new pipeline job", oldCount, newCount);
+        assertEquals("Unexpected forwarding run", previousRun, getLastForwardingRun(project));
         mockServer.verify(req, VerificationTimes.exactly(0));  //Will throw AssertionError if count doesn't match
     }
 
+    /**
+     * Get the outcome of the container's latest forwarding run, empty if forwarding has never run
+     */
+    private static Map<String, Object> getLastForwardingRun(String containerPath)
+    {
+        SimpleGetCommand command = new SimpleGetCommand("mobileAppStudy", "forwardingStatus");
+        try
+        {
+            Map<String, Object> lastRun = command.execute(WebTestHelper.getRemoteApiConnection(), containerPath).getProperty("lastRun");
+            return lastRun == null ? Map.of() : lastRun;
+        }
+        catch (IOException | CommandException e)
+        {
+            throw new RuntimeException("Unable to get response forwarding status for " + containerPath, e);
+        }
+    }
+
+    /**
+     * Wait for a forwarding run after the given one to finish. Forwarding starts within the configured maximum latency
+     * of a response being processed.
+     */
+    private static Map<String, Object> waitForForwardingRun(String containerPath, Map<String, Object> previousRun)
+    {
+        return new FluentWait<>(containerPath)
+            .withTimeout(Duration.ofMillis(FORWARDING_WAIT))
+            .pollingEvery(Duration.ofSeconds(1))
+            .withMessage("Response forwarding did not run for " + containerPath)
+            .until(path -> {
+                Map<String, Object> lastRun = getLastForwardingRun(path);
+                Object finished = lastRun.get("finished");
+                return finished != null && !finished.equals(previousRun.get("finished")) ? lastRun : null;
+            });
+    }
+
     private String submitResponse(String projectName, String studyName, String batchtoken)
     {
         String appToken = getNewAppToken(projectName, studyName, batchtoken);
@@ -21,6 +21,8 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.labkey.remoteapi.CommandResponse;
+import org.labkey.remoteapi.SimplePostCommand;
 import org.labkey.remoteapi.query.SelectRowsResponse;
 import org.labkey.test.TestFileUtils;
 import org.labkey.test.categories.Git;
@@ -34,7 +36,9 @@ import org.labkey.test.data.response.InitialSurvey;
 import org.labkey.test.data.response.MedForm;
 import org.labkey.test.data.response.QuestionResponse;
 import org.labkey.test.data.response.Survey;
+import org.openqa.selenium.support.ui.FluentWait;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
@@ -248,6 +252,46 @@ public class StudyWithdrawTest extends BaseResponseTest
         Assert.assertTrue(errorMsg.toString(), errorMsg.length() == 0);
     }
 
+    @Test
+    public void testWithdrawalAfterArchiving() throws Exception
+    {
+        goToProjectHome();
+
+        String appToken = getNewAppToken(PROJECT_NAME, STUDY_NAME, null);
+        String participantId = appTokenToParticipantId(appToken);
+        submitResponses(List.of(appToken));
+
+        log("wait for participant " + participantId + "'s responses to be processed");
+        new FluentWait<>(participantId)
+            .withTimeout(Duration.ofSeconds(30))
+            .pollingEvery(Duration.ofSeconds(1))
+            .withMessage("Responses were not processed for participant " + participantId)
+            .until(this::areResponsesProcessed);
+
+        log("archive processed responses");
+        SimplePostCommand archiveCommand = new SimplePostCommand("mobileAppStudy", "archiveResponses");
+        CommandResponse archiveResponse = archiveCommand.execute(createDefaultConnection(), getProjectName());
+        Assert.assertTrue("No responses were archived", ((Number) archiveResponse.getProperty("countArchived")).intValue() > 0);
+
+        log("withdraw participant " + participantId + " delete responses");
+        WithdrawParticipantCommand command = new WithdrawParticipantCommand(appToken, true);
+        command.execute(200);
+
+        Assert.assertFalse("User " + participantId + " still shown as enrolled in Participant after withdrawing.", isUserEnrolled(participantId));
+        Assert.assertEquals("Data found for user " + participantId + " that should have been deleted.", 0, tablesWithParticipantData(participantId).size());
+        Assert.assertTrue("User " + participantId + " did not have appToken null after withdrawal.", isAppTokenNull(appToken));
+    }
+
+    private boolean areResponsesProcessed(String participantId)
+    {
+        List<Map<String,Object>> rows = getMobileAppData("Response").getRows();
+        List<Map<String,Object>> participantRows = rows.stream()
+                .filter(row -> String.valueOf(row.get("ParticipantId")).equals(participantId))
+                .toList();
+        // Only processed responses are archived; wait until none are still pending
+        return !participantRows.isEmpty() && participantRows.stream().noneMatch(row -> Integer.valueOf(0).equals(row.get("Status")));
+    }
+
     private SelectRowsResponse getMobileAppData(String table)
     {
         return getMobileAppData(table, MOBILEAPP_SCHEMA);